@@ -0,0 +1,118 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in homeserver: accepts joins and messages of the bots, each bot has its own room.
+ */
+public class FakeHomeserver {
+
+    private static final Pattern USER_ID = Pattern.compile("user_id=([^&]+)");
+
+    private static final Pattern STATUS_ID = Pattern.compile("\"body\"\\s*:\\s*\"(\\d+)");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+    private final LoadStats stats;
+    private final String domain;
+    private final Set<String> joined = ConcurrentHashMap.newKeySet();
+    private final AtomicLong events = new AtomicLong();
+
+    /**
+     * Create the server.
+     *
+     * @param port   port.
+     * @param domain server name.
+     * @param stats  statistics.
+     * @throws IOException when cannot bind the port.
+     */
+    public FakeHomeserver(int port, String domain, LoadStats stats) throws IOException {
+        this.domain = domain;
+        this.stats = stats;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/_matrix/client/r0/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop the server.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public int getJoined() {
+        return joined.size();
+    }
+
+    /**
+     * Room of the bot.
+     *
+     * @param userId bot's user id.
+     * @return room id.
+     */
+    public String room(String userId) {
+        return "!" + userId.substring(1, userId.indexOf(':')) + ":" + domain;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String userId = URLDecoder.decode(FakeMastodon.find(USER_ID, String.valueOf(exchange.getRequestURI().getRawQuery())),
+            StandardCharsets.UTF_8.name());
+        String body = FakeMastodon.body(exchange);
+
+        if (path.contains("/send/")) {
+            String statusId = FakeMastodon.find(STATUS_ID, body);
+            if (!statusId.isEmpty() && !userId.isEmpty()) {
+                stats.delivered(userId.substring(userId.indexOf('_') + 1, userId.indexOf(':')), statusId);
+            }
+            FakeMastodon.json(exchange, "{\"event_id\":\"$" + events.incrementAndGet() + ":" + domain + "\"}");
+        } else if (path.endsWith("/joined_rooms")) {
+            FakeMastodon.json(exchange, userId.isEmpty() ? "{\"joined_rooms\":[]}" : "{\"joined_rooms\":[\"" + room(userId) + "\"]}");
+        } else if (path.contains("/join")) {
+            joined.add(userId);
+            FakeMastodon.json(exchange, "{\"room_id\":\"" + (userId.isEmpty() ? "" : room(userId)) + "\"}");
+        } else if (path.endsWith("/register")) {
+            FakeMastodon.json(exchange, "{\"user_id\":\"" + userId + "\"}");
+        } else {
+            FakeMastodon.json(exchange, "{}");
+        }
+    }
+}
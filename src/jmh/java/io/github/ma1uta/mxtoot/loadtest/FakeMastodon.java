@@ -0,0 +1,254 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.loadtest;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.ma1uta.mxtoot.mastodon.StreamReplay;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in mastodon server: oauth, the user stream with the configured event rate, statuses and accounts.
+ * <br>
+ * The stream can replay the events recorded by the {@link io.github.ma1uta.mxtoot.mastodon.StreamRecorder} instead of
+ * the generated statuses, each bot gets the whole record.
+ */
+public class FakeMastodon {
+
+    /**
+     * Every n-th status is a reply to make the bot fetch the replied status.
+     */
+    private static final int REPLY_EVERY = 5;
+
+    private static final long HEARTBEAT_MILLIS = 5000;
+
+    private static final Pattern ID = Pattern.compile("/(\\d+)$");
+
+    private static final Pattern CLIENT_NAME = Pattern.compile("client_name=([^&]+)");
+
+    private static final Pattern CLIENT_ID = Pattern.compile("client_id=([^&]+)");
+
+    private static final Pattern STATUS_ID = Pattern.compile("\"id\"\\s*:\\s*\"?(\\d+)");
+
+    private static final String TOKEN_PREFIX = "token-client-";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final LoadStats stats;
+    private final double rate;
+    private final String status;
+    private final String account;
+    private final AtomicLong ids = new AtomicLong(1);
+    private final Set<String> apps = ConcurrentHashMap.newKeySet();
+    private final Set<String> tokens = ConcurrentHashMap.newKeySet();
+    private final Map<String, Boolean> streams = new ConcurrentHashMap<>();
+    private volatile boolean emitting = true;
+    private Path capture;
+    private double speed = 1;
+
+    /**
+     * Create the server.
+     *
+     * @param port  port.
+     * @param rate  statuses per second of the each stream.
+     * @param stats statistics.
+     * @throws IOException when cannot bind the port.
+     */
+    public FakeMastodon(int port, double rate, LoadStats stats) throws IOException {
+        this.rate = rate;
+        this.stats = stats;
+        this.status = resource("/payloads/status.json");
+        this.account = new JsonParser().parse(status).getAsJsonObject().getAsJsonObject("account").toString();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/api/v1/apps", this::apps);
+        this.server.createContext("/oauth/token", this::token);
+        this.server.createContext("/api/v1/streaming/user", this::stream);
+        this.server.createContext("/api/v1/statuses/", exchange -> json(exchange, status(id(exchange), null).toString()));
+        this.server.createContext("/api/v1/accounts/", exchange -> json(exchange, account));
+        this.server.createContext("/api/v1/timelines/home", exchange -> json(exchange, "[" + status(ids.incrementAndGet(), null) + "]"));
+    }
+
+    /**
+     * Replay the record instead of the generated statuses.
+     *
+     * @param capture record.
+     * @param speed   replay speed (1 is the original speed, 0 is without pauses).
+     */
+    public void replay(Path capture, double speed) {
+        this.capture = capture;
+        this.speed = speed;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop emitting statuses and the server.
+     */
+    public void stop() {
+        emitting = false;
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getAddress() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public int getApps() {
+        return apps.size();
+    }
+
+    public int getTokens() {
+        return tokens.size();
+    }
+
+    public int getStreams() {
+        return streams.size();
+    }
+
+    private void apps(HttpExchange exchange) throws IOException {
+        String name = find(CLIENT_NAME, body(exchange));
+        apps.add(name);
+        json(exchange, String.format("{\"id\":%d,\"client_id\":\"client-%s\",\"client_secret\":\"secret-%s\"}", ids.incrementAndGet(),
+            name, name));
+    }
+
+    private void token(HttpExchange exchange) throws IOException {
+        String clientId = find(CLIENT_ID, exchange.getRequestURI().getRawQuery() + "&" + body(exchange));
+        String token = TOKEN_PREFIX + clientId.replaceFirst("^client-", "");
+        tokens.add(token);
+        json(exchange, String.format("{\"access_token\":\"%s\",\"token_type\":\"bearer\",\"scope\":\"read write follow\","
+            + "\"created_at\":%d}", token, Instant.now().getEpochSecond()));
+    }
+
+    private void stream(HttpExchange exchange) throws IOException {
+        String token = String.valueOf(exchange.getRequestHeaders().getFirst("Authorization"));
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        streams.put(token, Boolean.TRUE);
+        String bot = token.substring(token.indexOf(TOKEN_PREFIX) + TOKEN_PREFIX.length());
+        if (capture != null) {
+            replay(exchange, token, bot);
+            return;
+        }
+        long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MILLIS);
+        long next = System.nanoTime() + interval;
+        try (OutputStream output = exchange.getResponseBody()) {
+            long count = 0;
+            while (emitting) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                next += interval;
+                if (rate <= 0) {
+                    output.write(":thump\n".getBytes(StandardCharsets.UTF_8));
+                    output.flush();
+                    continue;
+                }
+                long id = ids.incrementAndGet();
+                String json = status(id, ++count % REPLY_EVERY == 0 ? id - 1 : null).toString();
+                stats.emitted(bot, String.valueOf(id));
+                output.write(("event: update\ndata: " + json + "\n\n").getBytes(StandardCharsets.UTF_8));
+                output.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            streams.remove(token);
+        }
+    }
+
+    private void replay(HttpExchange exchange, String token, String bot) {
+        try (OutputStream output = exchange.getResponseBody(); StreamReplay replay = new StreamReplay(capture, speed)) {
+            StreamReplay.Frame frame;
+            while (emitting && (frame = replay.next()) != null) {
+                if ("update".equals(frame.getEvent())) {
+                    stats.emitted(bot, find(STATUS_ID, frame.getPayload()));
+                }
+                output.write(("event: " + frame.getEvent() + "\ndata: " + frame.getPayload() + "\n\n").getBytes(StandardCharsets.UTF_8));
+                output.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            streams.remove(token);
+        }
+    }
+
+    private JsonObject status(long id, Long inReplyTo) {
+        JsonObject copy = new JsonParser().parse(status).getAsJsonObject();
+        copy.addProperty("id", String.valueOf(id));
+        copy.addProperty("created_at", Instant.now().toString());
+        copy.addProperty("url", "https://mastodon.example/@Gargron/" + id);
+        if (inReplyTo != null) {
+            copy.addProperty("in_reply_to_id", String.valueOf(inReplyTo));
+            copy.addProperty("in_reply_to_account_id", "1");
+        }
+        return copy;
+    }
+
+    private long id(HttpExchange exchange) {
+        Matcher matcher = ID.matcher(exchange.getRequestURI().getPath());
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : ids.incrementAndGet();
+    }
+
+    static String find(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? matcher.group(1) : "";
+    }
+
+    static String body(HttpExchange exchange) throws IOException {
+        try (Scanner scanner = new Scanner(exchange.getRequestBody(), StandardCharsets.UTF_8.name())) {
+            return scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
+        }
+    }
+
+    static void json(HttpExchange exchange, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    static String resource(String name) throws IOException {
+        try (InputStream stream = FakeMastodon.class.getResourceAsStream(name);
+             Scanner scanner = new Scanner(stream, StandardCharsets.UTF_8.name())) {
+            return scanner.useDelimiter("\\A").next();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.loadtest;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformReservoir;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the load test: emitted and delivered statuses and the delivery lag.
+ */
+public class LoadStats {
+
+    private final Map<String, Long> emitted = new ConcurrentHashMap<>();
+    private final AtomicLong emittedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private volatile Histogram lag = new Histogram(new UniformReservoir());
+
+    /**
+     * The status has been sent to the stream.
+     *
+     * @param bot      bot's number.
+     * @param statusId status id.
+     */
+    public void emitted(String bot, String statusId) {
+        emitted.put(bot + ":" + statusId, System.nanoTime());
+        emittedCount.incrementAndGet();
+    }
+
+    /**
+     * The status has been sent to the matrix room.
+     *
+     * @param bot      bot's number.
+     * @param statusId status id.
+     */
+    public void delivered(String bot, String statusId) {
+        Long start = emitted.remove(bot + ":" + statusId);
+        if (start != null) {
+            deliveredCount.incrementAndGet();
+            lag.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Drop the collected lags (after the warmup).
+     */
+    public void reset() {
+        lag = new Histogram(new UniformReservoir());
+    }
+
+    public long getEmitted() {
+        return emittedCount.get();
+    }
+
+    public long getDelivered() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * Lag percentiles.
+     *
+     * @return snapshot of the lags in microseconds.
+     */
+    public Snapshot getLag() {
+        return lag.getSnapshot();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.loadtest;
+
+import com.codahale.metrics.Snapshot;
+import io.github.ma1uta.mxtoot.BotApplication;
+import io.github.ma1uta.mxtoot.mastodon.HttpClients;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Load test of the bridge with the stand-in mastodon server and homeserver.
+ * <br>
+ * Starts the application, invites N bots, registers them on the fake mastodon via {@code !reg} and {@code !auth},
+ * starts the timelines and measures the sustained throughput, the delivery lag and the memory per bot.
+ * <br>
+ * Options: {@code --bots 100 --rate 1 --warmup 10 --duration 60 --port 18080}.
+ * <br>
+ * With {@code --replay <record> --speed 10} each bot's stream replays the record of the production stream instead of
+ * the generated statuses.
+ */
+public class LoadTest {
+
+    private static final String DOMAIN = "loadtest";
+
+    private static final String OWNER = "@owner:" + DOMAIN;
+
+    private static final String HS_TOKEN = "loadtest-hs-token";
+
+    private static final long AWAIT_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    private static final long POLL_INTERVAL = 100;
+
+    private static final long BYTES_IN_KB = 1024;
+
+    private final int bots;
+    private final int port;
+    private final AtomicLong txnIds = new AtomicLong();
+    private final LoadStats stats = new LoadStats();
+    private final FakeMastodon mastodon;
+    private final FakeHomeserver homeserver;
+
+    public LoadTest(int bots, double rate, int port) throws IOException {
+        this.bots = bots;
+        this.port = port;
+        this.mastodon = new FakeMastodon(0, rate, stats);
+        this.homeserver = new FakeHomeserver(0, DOMAIN, stats);
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args options.
+     * @throws Exception when the test fails.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        LoadTest test = new LoadTest(Integer.parseInt(options.getOrDefault("bots", "100")),
+            Double.parseDouble(options.getOrDefault("rate", "1")), Integer.parseInt(options.getOrDefault("port", "18080")));
+        if (options.containsKey("replay")) {
+            test.replay(Paths.get(options.get("replay")), Double.parseDouble(options.getOrDefault("speed", "1")));
+        }
+        try {
+            test.run(Integer.parseInt(options.getOrDefault("warmup", "10")), Integer.parseInt(options.getOrDefault("duration", "60")));
+        } finally {
+            test.stop();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Replay the record in the each bot's stream.
+     *
+     * @param capture record.
+     * @param speed   replay speed.
+     */
+    public void replay(Path capture, double speed) {
+        mastodon.replay(capture, speed);
+    }
+
+    /**
+     * Run the test.
+     *
+     * @param warmup   warmup in seconds.
+     * @param duration measurement in seconds.
+     * @throws Exception when the test fails.
+     */
+    public void run(int warmup, int duration) throws Exception {
+        mastodon.start();
+        homeserver.start();
+        redirectMastodon();
+
+        Path config = Files.createTempFile("mxtoot-loadtest", ".yaml");
+        Files.write(config, FakeMastodon.resource("/loadtest.yaml").getBytes(StandardCharsets.UTF_8));
+        System.setProperty("dw.homeserverUrl", homeserver.getUrl());
+        System.setProperty("dw.server.applicationConnectors[0].port", String.valueOf(port));
+        System.setProperty("dw.server.adminConnectors[0].port", String.valueOf(port + 1));
+        new BotApplication().run("server", config.toString());
+
+        long heapBefore = usedHeap();
+        for (int i = 0; i < bots; i++) {
+            String userId = "@mxtoot_" + i + ":" + DOMAIN;
+            push(String.format("{\"type\":\"m.room.member\",\"state_key\":\"%s\",\"content\":{\"membership\":\"invite\"}", userId),
+                homeserver.room(userId));
+        }
+        await(homeserver::getJoined, "join");
+        send("!reg " + mastodon.getAddress());
+        await(mastodon::getApps, "register");
+        send("!auth code");
+        await(mastodon::getTokens, "authorize");
+        send("!timeline auto");
+        await(mastodon::getStreams, "stream");
+
+        TimeUnit.SECONDS.sleep(warmup);
+        long heapAfter = usedHeap();
+        stats.reset();
+        long delivered = stats.getDelivered();
+        long emitted = stats.getEmitted();
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(duration);
+        double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        Snapshot lag = stats.getLag();
+        System.out.printf("bots: %d%n", bots);
+        System.out.printf("emitted: %.1f statuses/s%n", (stats.getEmitted() - emitted) / seconds);
+        System.out.printf("delivered: %.1f statuses/s%n", (stats.getDelivered() - delivered) / seconds);
+        System.out.printf("lag: median %.1f ms, p99 %.1f ms, max %.1f ms%n", lag.getMedian() / 1000, lag.get99thPercentile() / 1000,
+            lag.getMax() / 1000.0);
+        System.out.printf("memory: %d KB per bot%n", Math.max(0, heapAfter - heapBefore) / bots / BYTES_IN_KB);
+    }
+
+    /**
+     * Stop the stand-in servers.
+     */
+    public void stop() {
+        mastodon.stop();
+        homeserver.stop();
+    }
+
+    /**
+     * The mastodon client always uses https, rewrite requests to the plain http of the stand-in server.
+     */
+    protected void redirectMastodon() {
+        String address = mastodon.getAddress();
+        HttpClients.setShared(new OkHttpClient.Builder().readTimeout(0, TimeUnit.MILLISECONDS).addInterceptor(chain -> {
+            Request request = chain.request();
+            HttpUrl url = request.url();
+            if (address.equals(url.host() + ":" + url.port())) {
+                request = request.newBuilder().url(url.newBuilder().scheme("http").port(url.port()).build()).build();
+            }
+            return chain.proceed(request);
+        }).build());
+    }
+
+    protected void send(String command) throws IOException {
+        for (int i = 0; i < bots; i++) {
+            String userId = "@mxtoot_" + i + ":" + DOMAIN;
+            push(String.format("{\"type\":\"m.room.message\",\"content\":{\"msgtype\":\"m.text\",\"body\":\"%s\"}", command),
+                homeserver.room(userId));
+        }
+    }
+
+    protected void push(String event, String roomId) throws IOException {
+        long txnId = txnIds.incrementAndGet();
+        String body = String.format("{\"events\":[%s,\"room_id\":\"%s\",\"sender\":\"%s\",\"event_id\":\"$txn%d:%s\","
+            + "\"origin_server_ts\":%d}]}", event, roomId, OWNER, txnId, DOMAIN, System.currentTimeMillis());
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+            String.format("http://127.0.0.1:%d/transactions/%d?access_token=%s", port, txnId, HS_TOKEN)).openConnection();
+        connection.setRequestMethod("PUT");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Transaction " + txnId + " failed: " + connection.getResponseCode());
+        }
+        connection.disconnect();
+    }
+
+    protected void await(IntSupplier actual, String phase) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT;
+        while (actual.getAsInt() < bots) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException(String.format("Phase %s: %d of %d bots", phase, actual.getAsInt(), bots));
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+    protected long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        Thread.sleep(POLL_INTERVAL);
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.google.gson.Gson;
+import com.sys1yagi.mastodon4j.MastodonClient;
+import okhttp3.OkHttpClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+/**
+ * Recorded payloads of the mastodon streaming api.
+ */
+final class Payloads {
+
+    /**
+     * Status with media, mention, tag and custom emoji.
+     */
+    static final String STATUS = load("status.json");
+
+    /**
+     * Boost of the {@link #STATUS}.
+     */
+    static final String REBLOG = load("reblog.json");
+
+    /**
+     * Favourite notification of the {@link #STATUS}.
+     */
+    static final String NOTIFICATION = load("notification.json");
+
+    /**
+     * Server-sent events: post, boost, notification, reply, delete and heartbeats.
+     */
+    static final String STREAM = load("stream.txt");
+
+    private Payloads() {
+    }
+
+    static MastodonClient client() {
+        return new MastodonClient.Builder("mastodon.social", new OkHttpClient.Builder(), new Gson()).build();
+    }
+
+    private static String load(String name) {
+        try (InputStream stream = Payloads.class.getResourceAsStream("/payloads/" + name);
+             Scanner scanner = new Scanner(stream, StandardCharsets.UTF_8.name())) {
+            return scanner.useDelimiter("\\A").next();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
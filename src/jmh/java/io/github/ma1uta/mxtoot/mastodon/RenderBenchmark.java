@@ -0,0 +1,120 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.samskivert.mustache.Template;
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of the status: {@code statusToMap}, the mustache template and the html to text conversion.
+ * <br>
+ * The client has no bot's holder, the mastodon instance (accounts, emojis) is stubbed. With {@code bridgeMedia} the emojis
+ * of the content are looked up in the media cache, nothing is uploaded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+    private static final String POST_FORMAT = "{{id}} ({{visibility}}): <a href=\"{{url}}\">{{url}}</a>:<br/>\n"
+        + "{{account.acct}} at {{created_at}} wrote:<br/>\n{{content}}";
+
+    private static final String BOOST_FORMAT = "{{id}} ({{visibility}}): <a href=\"{{url}}\">{{url}}</a>:<br/>\n"
+        + "{{account.acct}} boosted <a href=\"{{reblog.url}}\">{{reblog.url}}</a>:<br/>\n"
+        + "{{reblog.account.acct}} at {{reblog.created_at}} wrote:<br/>\n{{content}}";
+
+    private static final String SERVER = "mastodon.social";
+
+    @Param({"false", "true"})
+    private boolean bridgeMedia;
+
+    private MxMastodonClient client;
+    private Template postTemplate;
+    private Template boostTemplate;
+    private Status status;
+    private Status reblog;
+    private String message;
+
+    /**
+     * Parse the payloads and compile the default templates.
+     */
+    @Setup
+    public void setup() {
+        MediaCache.init("http://localhost:8008", "", bridgeMedia);
+        client = new MxMastodonClient(Payloads.client(), null) {
+            @Override
+            public MastodonInstance getInstance() {
+                return MastodonInstance.of(SERVER);
+            }
+        };
+        client.setDateTimeFormatter(DateTimeFormatter.ofPattern("MMM dd, yyyy, hh:mm", Locale.ENGLISH));
+        postTemplate = client.compileTemplate(POST_FORMAT);
+        boostTemplate = client.compileTemplate(BOOST_FORMAT);
+        status = client.getMastodonClient().getSerializer().fromJson(Payloads.STATUS, Status.class);
+        reblog = client.getMastodonClient().getSerializer().fromJson(Payloads.REBLOG, Status.class);
+        message = post();
+    }
+
+    /**
+     * Render the post.
+     *
+     * @return formatted message.
+     */
+    @Benchmark
+    public String post() {
+        return client.formatTemplate(postTemplate, client.statusToMap(status, true));
+    }
+
+    /**
+     * Render the boost.
+     *
+     * @return formatted message.
+     */
+    @Benchmark
+    public String boost() {
+        return client.formatTemplate(boostTemplate, client.statusToMap(reblog, true));
+    }
+
+    /**
+     * Convert the formatted message to the plain text body.
+     *
+     * @return plain text.
+     */
+    @Benchmark
+    public String htmlToText() {
+        return Jsoup.parse(message).text();
+    }
+}
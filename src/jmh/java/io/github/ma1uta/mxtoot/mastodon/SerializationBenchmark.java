@@ -0,0 +1,85 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.google.gson.Gson;
+import com.sys1yagi.mastodon4j.api.entity.Notification;
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserialization of the statuses and notifications.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    private Gson gson;
+
+    /**
+     * Use the serializer of the mastodon client.
+     */
+    @Setup
+    public void setup() {
+        gson = Payloads.client().getSerializer();
+    }
+
+    /**
+     * Parse the status.
+     *
+     * @return parsed status.
+     */
+    @Benchmark
+    public Status status() {
+        return gson.fromJson(Payloads.STATUS, Status.class);
+    }
+
+    /**
+     * Parse the boost.
+     *
+     * @return parsed boost.
+     */
+    @Benchmark
+    public Status reblog() {
+        return gson.fromJson(Payloads.REBLOG, Status.class);
+    }
+
+    /**
+     * Parse the notification.
+     *
+     * @return parsed notification.
+     */
+    @Benchmark
+    public Notification notification() {
+        return gson.fromJson(Payloads.NOTIFICATION, Notification.class);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.sys1yagi.mastodon4j.api.Handler;
+import com.sys1yagi.mastodon4j.api.entity.Notification;
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and parsing of the server-sent events.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamingBenchmark {
+
+    private Streaming streaming;
+
+    /**
+     * Prepare the streaming without connection.
+     */
+    @Setup
+    public void setup() {
+        streaming = new Streaming(Payloads.client(), false, response -> {
+        }, null, new StreamState());
+    }
+
+    /**
+     * Read the recorded stream.
+     *
+     * @param blackhole consumer of the parsed events.
+     * @throws IOException never.
+     */
+    @Benchmark
+    public void readStream(Blackhole blackhole) throws IOException {
+        streaming.read(new BufferedReader(new StringReader(Payloads.STREAM)), new Handler() {
+            @Override
+            public void onStatus(Status status) {
+                blackhole.consume(status);
+            }
+
+            @Override
+            public void onNotification(Notification notification) {
+                blackhole.consume(notification);
+            }
+
+            @Override
+            public void onDelete(long id) {
+                blackhole.consume(id);
+            }
+        });
+    }
+}
@@ -16,33 +16,58 @@
 
 package io.github.ma1uta.mxtoot;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import io.dropwizard.Application;
+import io.dropwizard.ConfiguredBundle;
 import io.dropwizard.client.JerseyClientBuilder;
 import io.dropwizard.configuration.EnvironmentVariableSubstitutor;
 import io.dropwizard.configuration.SubstitutingSourceProvider;
+import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.db.ManagedDataSource;
 import io.dropwizard.db.PooledDataSourceFactory;
 import io.dropwizard.hibernate.HibernateBundle;
 import io.dropwizard.hibernate.UnitOfWorkAwareProxyFactory;
+import io.dropwizard.migrations.CloseableLiquibase;
+import io.dropwizard.migrations.CloseableLiquibaseWithClassPathMigrationsFile;
+import io.dropwizard.migrations.MigrationsBundle;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.dropwizard.sslreload.SslReloadBundle;
 import io.github.ma1uta.matrix.exception.ExceptionHandler;
+import io.github.ma1uta.mxtoot.mastodon.BridgeMetrics;
+import io.github.ma1uta.mxtoot.mastodon.HttpClients;
+import io.github.ma1uta.mxtoot.mastodon.MediaCache;
+import io.github.ma1uta.mxtoot.mastodon.Outbox;
+import io.github.ma1uta.mxtoot.mastodon.StreamRecorder;
 import io.github.ma1uta.mxtoot.matrix.AppResource;
+import io.github.ma1uta.mxtoot.matrix.DatabaseMetrics;
+import io.github.ma1uta.mxtoot.matrix.Inbox;
+import io.github.ma1uta.mxtoot.matrix.LanesHealthCheck;
+import io.github.ma1uta.mxtoot.matrix.MatrixSender;
 import io.github.ma1uta.mxtoot.matrix.MxTootBotPool;
 import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
 import io.github.ma1uta.mxtoot.matrix.MxTootDao;
+import io.github.ma1uta.mxtoot.matrix.MxTootEvent;
 import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
 import io.github.ma1uta.mxtoot.matrix.MxTootTransaction;
 import io.github.ma1uta.mxtoot.matrix.MxTootTransactionDao;
 import io.github.ma1uta.mxtoot.matrix.OldAppResource;
+import io.github.ma1uta.mxtoot.matrix.StreamingHealthCheck;
+import io.github.ma1uta.mxtoot.matrix.StreamsTask;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Paths;
 import java.security.cert.X509Certificate;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -56,12 +81,32 @@ public class BotApplication extends Application<BotConfiguration> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BotApplication.class);
 
+    /**
+     * Changelog of the database.
+     */
+    private static final String MIGRATIONS = "migrations.xml";
+
     private HibernateBundle<BotConfiguration> matrixHibernate = new HibernateBundle<BotConfiguration>(MxTootConfig.class,
-        MxTootTransaction.class) {
+        MxTootTransaction.class, MxTootEvent.class) {
         @Override
         public PooledDataSourceFactory getDataSourceFactory(BotConfiguration configuration) {
             return configuration.getDataSourceFactory();
         }
+
+        /**
+         * Enable the second-level and query caches unless the database properties configure them.
+         *
+         * @param configuration hibernate configuration.
+         */
+        @Override
+        protected void configure(Configuration configuration) {
+            Properties properties = configuration.getProperties();
+            properties.putIfAbsent(AvailableSettings.USE_SECOND_LEVEL_CACHE, "true");
+            properties.putIfAbsent(AvailableSettings.USE_QUERY_CACHE, "true");
+            properties.putIfAbsent(AvailableSettings.CACHE_REGION_FACTORY, "org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory");
+            properties.putIfAbsent("net.sf.ehcache.configurationResourceName", "/ehcache.xml");
+            properties.putIfAbsent(AvailableSettings.GENERATE_STATISTICS, "true");
+        }
     };
 
     /**
@@ -90,17 +135,68 @@ public class BotApplication extends Application<BotConfiguration> {
 
         bootstrap.getObjectMapper().enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY);
 
+        bootstrap.addBundle(new MigrationsBundle<BotConfiguration>() {
+            @Override
+            public DataSourceFactory getDataSourceFactory(BotConfiguration configuration) {
+                return configuration.getDataSourceFactory();
+            }
+        });
+        bootstrap.addBundle(new ConfiguredBundle<BotConfiguration>() {
+            @Override
+            public void initialize(Bootstrap<?> bootstrap) {
+            }
+
+            /**
+             * Apply the migrations before the session factory is built, so the hibernate validates the migrated schema.
+             *
+             * @param configuration application configuration.
+             * @param environment   application environment.
+             * @throws Exception when cannot migrate the database.
+             */
+            @Override
+            public void run(BotConfiguration configuration, Environment environment) throws Exception {
+                if (configuration.isMigrateOnStart()) {
+                    migrate(configuration, environment);
+                }
+            }
+        });
         bootstrap.addBundle(matrixHibernate);
     }
 
+    /**
+     * Apply the database migrations.
+     *
+     * @param configuration application configuration.
+     * @param environment   application environment.
+     * @throws Exception when cannot migrate the database.
+     */
+    protected void migrate(BotConfiguration configuration, Environment environment) throws Exception {
+        ManagedDataSource dataSource = configuration.getDataSourceFactory().build(environment.metrics(), "migrations");
+        try (CloseableLiquibase liquibase = new CloseableLiquibaseWithClassPathMigrationsFile(dataSource, MIGRATIONS)) {
+            liquibase.update("");
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private void matrixBot(BotConfiguration botConfiguration, Environment environment) {
         environment.getObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
         environment.getObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, botConfiguration.isStrictMode());
         environment.getObjectMapper().configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
 
+        BridgeMetrics.init(environment.metrics());
+        MatrixSender.init(botConfiguration.getHomeserverUrl(), botConfiguration.getAsToken(), botConfiguration.getMatrixMaxInFlight(),
+            botConfiguration.isMatrixHttp2(), botConfiguration.isMatrixGzip(), environment.metrics());
+        StreamRecorder.init(botConfiguration.getRecordDirectory());
+        Outbox.init(botConfiguration.getJournalDirectory());
+        HttpClients.setCallTimeout(TimeUnit.SECONDS.toMillis(botConfiguration.getMastodonTimeout()));
+        Threads.init(botConfiguration.getThreadMode(), botConfiguration.getWorkers(), botConfiguration.getTaskThreads(),
+            botConfiguration.getMediaThreads());
+        MediaCache.init(botConfiguration.getHomeserverUrl(), botConfiguration.getAsToken(), botConfiguration.isBridgeMedia());
+
         Client jersey = new JerseyClientBuilder(environment).using(botConfiguration.getJerseyClient()).build("jersey");
 
+        DatabaseMetrics.register(environment.metrics(), matrixHibernate.getSessionFactory());
+
         UnitOfWorkAwareProxyFactory proxyFactory = new UnitOfWorkAwareProxyFactory(matrixHibernate);
         MxTootDao mxTootDao = new MxTootDao(matrixHibernate.getSessionFactory());
         MxTootTransactionDao mxTootTransactionDao = new MxTootTransactionDao(matrixHibernate.getSessionFactory());
@@ -111,9 +207,20 @@ public class BotApplication extends Application<BotConfiguration> {
         MxTootBotPool mxTootBotPool = new MxTootBotPool(botConfiguration, botService, jersey, botConfiguration.getCommands());
 
         environment.lifecycle().manage(mxTootBotPool);
+        environment.healthChecks().register("streaming", new StreamingHealthCheck(mxTootBotPool));
+        environment.healthChecks().register("lanes", new LanesHealthCheck(mxTootBotPool.getLanes(),
+            Math.max(1, botConfiguration.getWorkers() / 2)));
+        environment.metrics().register(MetricRegistry.name("mxtoot", "lanes", "stuck"), (Gauge<Integer>) mxTootBotPool.getLanes()::stuck);
+        environment.admin().addTask(new StreamsTask(mxTootBotPool));
         AppResource appResource = new AppResource(mxTootTransactionDao, mxTootBotPool, botConfiguration.getHsToken(),
             botConfiguration.getHomeserverUrl(),
             botService, transactionService);
+        if (botConfiguration.getJournalDirectory() != null && !botConfiguration.getJournalDirectory().trim().isEmpty()) {
+            Inbox inbox = new Inbox(Paths.get(botConfiguration.getJournalDirectory(), "inbound"), environment.getObjectMapper(),
+                appResource::process);
+            appResource.setInbox(inbox);
+            environment.lifecycle().manage(inbox);
+        }
         environment.jersey().register(appResource);
         environment.jersey().register(new OldAppResource(appResource));
         environment.jersey().register(new ExceptionHandler());
@@ -24,6 +24,10 @@ import io.dropwizard.db.DataSourceFactory;
 import io.github.ma1uta.matrix.bot.Command;
 import io.github.ma1uta.matrix.bot.RunState;
 import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+import io.github.ma1uta.mxtoot.mastodon.NotificationDigest;
+import io.github.ma1uta.mxtoot.mastodon.SearchIndex;
+import io.github.ma1uta.mxtoot.mastodon.TimelineBuffer;
+import io.github.ma1uta.mxtoot.matrix.MatrixSender;
 import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
 import io.github.ma1uta.mxtoot.matrix.MxTootDao;
 import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
@@ -31,7 +35,9 @@ import org.hibernate.validator.constraints.NotEmpty;
 import org.hibernate.validator.constraints.URL;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
@@ -41,6 +47,16 @@ import javax.validation.constraints.NotNull;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class BotConfiguration extends Configuration {
 
+    /**
+     * Default timeout of the command in seconds.
+     */
+    public static final int DEFAULT_COMMAND_TIMEOUT = 60;
+
+    /**
+     * Default timeout of the mastodon request in seconds.
+     */
+    public static final int DEFAULT_MASTODON_TIMEOUT = 30;
+
     @Valid
     @NotNull
     @JsonProperty("jerseyClient")
@@ -102,6 +118,42 @@ public class BotConfiguration extends Configuration {
 
     private Boolean fetchMissingStatuses;
 
+    private Integer timelineBufferSize = TimelineBuffer.DEFAULT_CAPACITY;
+
+    private Integer searchRetention = SearchIndex.DEFAULT_RETENTION;
+
+    private Integer bridgedEventRetention = MxMastodonClient.DEFAULT_EVENT_RETENTION;
+
+    private Integer digestInterval = NotificationDigest.DEFAULT_INTERVAL;
+
+    private String recordDirectory;
+
+    private String journalDirectory;
+
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+    private boolean bridgeMedia = false;
+
+    private int workers = Threads.DEFAULT_WORKERS;
+
+    private int taskThreads = Threads.DEFAULT_TASKS;
+
+    private int mediaThreads = Threads.DEFAULT_MEDIA;
+
+    private int matrixMaxInFlight = MatrixSender.DEFAULT_MAX_IN_FLIGHT;
+
+    private boolean matrixHttp2 = true;
+
+    private boolean matrixGzip = false;
+
+    private boolean migrateOnStart = true;
+
+    private int commandTimeout = DEFAULT_COMMAND_TIMEOUT;
+
+    private int mastodonTimeout = DEFAULT_MASTODON_TIMEOUT;
+
+    private Map<String, Integer> commandTimeouts = new HashMap<>();
+
     @NotNull
     private boolean strictMode = false;
 
@@ -265,6 +317,150 @@ public class BotConfiguration extends Configuration {
         this.fetchMissingStatuses = fetchMissingStatuses;
     }
 
+    public Integer getTimelineBufferSize() {
+        return timelineBufferSize;
+    }
+
+    public void setTimelineBufferSize(Integer timelineBufferSize) {
+        this.timelineBufferSize = timelineBufferSize;
+    }
+
+    public Integer getSearchRetention() {
+        return searchRetention;
+    }
+
+    public void setSearchRetention(Integer searchRetention) {
+        this.searchRetention = searchRetention;
+    }
+
+    public Integer getBridgedEventRetention() {
+        return bridgedEventRetention;
+    }
+
+    public void setBridgedEventRetention(Integer bridgedEventRetention) {
+        this.bridgedEventRetention = bridgedEventRetention;
+    }
+
+    public Integer getDigestInterval() {
+        return digestInterval;
+    }
+
+    public void setDigestInterval(Integer digestInterval) {
+        this.digestInterval = digestInterval;
+    }
+
+    public String getRecordDirectory() {
+        return recordDirectory;
+    }
+
+    public void setRecordDirectory(String recordDirectory) {
+        this.recordDirectory = recordDirectory;
+    }
+
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public void setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public void setThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+    }
+
+    public boolean isBridgeMedia() {
+        return bridgeMedia;
+    }
+
+    public void setBridgeMedia(boolean bridgeMedia) {
+        this.bridgeMedia = bridgeMedia;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public int getTaskThreads() {
+        return taskThreads;
+    }
+
+    public void setTaskThreads(int taskThreads) {
+        this.taskThreads = taskThreads;
+    }
+
+    public int getMediaThreads() {
+        return mediaThreads;
+    }
+
+    public void setMediaThreads(int mediaThreads) {
+        this.mediaThreads = mediaThreads;
+    }
+
+    public int getMatrixMaxInFlight() {
+        return matrixMaxInFlight;
+    }
+
+    public void setMatrixMaxInFlight(int matrixMaxInFlight) {
+        this.matrixMaxInFlight = matrixMaxInFlight;
+    }
+
+    public boolean isMatrixHttp2() {
+        return matrixHttp2;
+    }
+
+    public void setMatrixHttp2(boolean matrixHttp2) {
+        this.matrixHttp2 = matrixHttp2;
+    }
+
+    public boolean isMatrixGzip() {
+        return matrixGzip;
+    }
+
+    public void setMatrixGzip(boolean matrixGzip) {
+        this.matrixGzip = matrixGzip;
+    }
+
+    public boolean isMigrateOnStart() {
+        return migrateOnStart;
+    }
+
+    public void setMigrateOnStart(boolean migrateOnStart) {
+        this.migrateOnStart = migrateOnStart;
+    }
+
+    public int getCommandTimeout() {
+        return commandTimeout;
+    }
+
+    public void setCommandTimeout(int commandTimeout) {
+        this.commandTimeout = commandTimeout;
+    }
+
+    public int getMastodonTimeout() {
+        return mastodonTimeout;
+    }
+
+    public void setMastodonTimeout(int mastodonTimeout) {
+        this.mastodonTimeout = mastodonTimeout;
+    }
+
+    public Map<String, Integer> getCommandTimeouts() {
+        return commandTimeouts;
+    }
+
+    public void setCommandTimeouts(Map<String, Integer> commandTimeouts) {
+        this.commandTimeouts = commandTimeouts;
+    }
+
     public String getPrefix() {
         return prefix;
     }
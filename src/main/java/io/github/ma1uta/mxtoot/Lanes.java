@@ -0,0 +1,187 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serial lanes on the shared worker pool.
+ * <br>
+ * Tasks with the same key run one by one in the submission order, tasks with different keys run concurrently on the
+ * workers. Each task has a timeout which starts when the task starts to run (the time in the queue isn't counted): the result
+ * of the timed out task completes with {@link TimeoutException} and the task is interrupted, but the lane waits until the
+ * worker returns, so two tasks of the one lane never run together.
+ * The blocking calls don't always respond to the interruption, so they should have their own timeouts (see
+ * {@link io.github.ma1uta.mxtoot.mastodon.HttpClients}); the workers which still run the timed out tasks are counted
+ * by {@link #stuck()}.
+ */
+public class Lanes {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Lanes.class);
+
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mxtoot-lane-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService workers;
+    private final Map<String, Queue<Runnable>> lanes = new HashMap<>();
+    private final AtomicInteger stuck = new AtomicInteger();
+
+    public Lanes(ExecutorService workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Submit the task to the lane.
+     *
+     * @param key     lane key.
+     * @param task    task.
+     * @param timeout timeout in milliseconds.
+     * @param <T>     result type.
+     * @return the task result, completed exceptionally with {@link TimeoutException} if the task has been timed out.
+     */
+    public <T> CompletableFuture<T> submit(String key, Callable<T> task, long timeout) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> workers.execute(new Slot<>(key, task, result, timeout));
+
+        boolean idle;
+        synchronized (lanes) {
+            Queue<Runnable> lane = lanes.get(key);
+            idle = lane == null;
+            if (idle) {
+                lanes.put(key, new ArrayDeque<>());
+            } else {
+                lane.add(start);
+            }
+        }
+        if (idle) {
+            start.run();
+        }
+        return result;
+    }
+
+    /**
+     * Count of the active lanes.
+     *
+     * @return lanes count.
+     */
+    public int size() {
+        synchronized (lanes) {
+            return lanes.size();
+        }
+    }
+
+    /**
+     * Count of the workers which still run the timed out tasks.
+     *
+     * @return stuck workers count.
+     */
+    public int stuck() {
+        return stuck.get();
+    }
+
+    private void next(String key) {
+        Runnable start;
+        synchronized (lanes) {
+            Queue<Runnable> lane = lanes.get(key);
+            start = lane != null ? lane.poll() : null;
+            if (start == null) {
+                lanes.remove(key);
+            }
+        }
+        if (start != null) {
+            start.run();
+        }
+    }
+
+    /**
+     * Running task of the lane.
+     *
+     * @param <T> result type.
+     */
+    private final class Slot<T> implements Runnable {
+
+        private final String key;
+        private final Callable<T> task;
+        private final CompletableFuture<T> result;
+        private final long timeout;
+        private Thread thread;
+        private boolean timedOut = false;
+
+        Slot(String key, Callable<T> task, CompletableFuture<T> result, long timeout) {
+            this.key = key;
+            this.task = task;
+            this.result = result;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void run() {
+            try {
+                synchronized (this) {
+                    if (result.isDone()) {
+                        return;
+                    }
+                    thread = Thread.currentThread();
+                }
+                Future<?> watchdog = TIMEOUTS.schedule(this::timeout, timeout, TimeUnit.MILLISECONDS);
+                result.whenComplete((value, e) -> watchdog.cancel(false));
+                try {
+                    result.complete(task.call());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    synchronized (this) {
+                        thread = null;
+                        if (timedOut) {
+                            LOGGER.warn("Task of the lane {} has returned after the timeout", key);
+                            stuck.decrementAndGet();
+                        }
+                    }
+                    Thread.interrupted();
+                }
+            } finally {
+                next(key);
+            }
+        }
+
+        synchronized void timeout() {
+            if (result.completeExceptionally(new TimeoutException("Timed out after " + timeout + " ms")) && thread != null) {
+                timedOut = true;
+                LOGGER.warn("Task of the lane {} timed out after {} ms, stuck workers: {}", key, timeout, stuck.incrementAndGet());
+                thread.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executors of the blocking work: the bots' streams, the commands with the enrichment calls and the media transfers.
+ * <br>
+ * Virtual threads are created via reflection, so the application still runs on Java 8 with platform threads.
+ */
+public final class Threads {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Threads.class);
+
+    private static volatile ExecutorService streams = Executors.newCachedThreadPool(platform("mxtoot-stream-"));
+
+    /**
+     * Default count of the threads which run the blocking tasks.
+     */
+    public static final int DEFAULT_TASKS = 64;
+
+    /**
+     * Idle threads of the task pool stop after this timeout in seconds.
+     */
+    private static final long IDLE_TIMEOUT = 60L;
+
+    private static volatile ExecutorService tasks = bounded(DEFAULT_TASKS, platform("mxtoot-task-"));
+
+    /**
+     * Default count of the workers which run the bots' events and commands.
+     */
+    public static final int DEFAULT_WORKERS = 16;
+
+    private static volatile ExecutorService workers = Executors.newFixedThreadPool(DEFAULT_WORKERS, platform("mxtoot-worker-"));
+
+    /**
+     * Default count of the threads which run the media transfers.
+     */
+    public static final int DEFAULT_MEDIA = 8;
+
+    private static volatile ExecutorService media = bounded(DEFAULT_MEDIA, platform("mxtoot-media-"));
+
+    private static volatile boolean virtual = false;
+
+    private Threads() {
+    }
+
+    /**
+     * Select the threads. Should be invoked before the first bot starts.
+     *
+     * @param mode        thread mode.
+     * @param workerCount count of the platform workers which run the bots' events and commands.
+     * @param taskCount   count of the platform threads which run the blocking tasks.
+     * @param mediaCount  count of the threads which run the media transfers.
+     */
+    public static void init(ThreadMode mode, int workerCount, int taskCount, int mediaCount) {
+        if (workerCount > 0 && workerCount != DEFAULT_WORKERS) {
+            workers.shutdown();
+            workers = Executors.newFixedThreadPool(workerCount, platform("mxtoot-worker-"));
+        }
+        if (taskCount > 0 && taskCount != DEFAULT_TASKS) {
+            tasks.shutdown();
+            tasks = bounded(taskCount, platform("mxtoot-task-"));
+        }
+        if (mediaCount > 0 && mediaCount != DEFAULT_MEDIA) {
+            media.shutdown();
+            media = bounded(mediaCount, platform("mxtoot-media-"));
+        }
+        if (mode != ThreadMode.VIRTUAL) {
+            return;
+        }
+        try {
+            streams = virtualExecutor("mxtoot-stream-");
+            ExecutorService virtualTasks = virtualExecutor("mxtoot-task-");
+            tasks.shutdown();
+            tasks = virtualTasks;
+            ExecutorService virtualWorkers = virtualExecutor("mxtoot-worker-");
+            workers.shutdown();
+            workers = virtualWorkers;
+            virtual = true;
+            LOGGER.info("Use virtual threads");
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads aren't supported by this JVM, use platform threads");
+        }
+    }
+
+    /**
+     * Executor of the stream readers, one thread per bot.
+     *
+     * @return the executor.
+     */
+    public static ExecutorService streams() {
+        return streams;
+    }
+
+    /**
+     * Executor of the commands, the enrichment calls and other blocking tasks.
+     * <br>
+     * Platform threads are bounded and don't share the common pool, so the blocking calls don't starve the parallel streams.
+     *
+     * @return the executor.
+     */
+    public static ExecutorService tasks() {
+        return tasks;
+    }
+
+    /**
+     * Workers of the bots' lanes (see {@link Lanes}).
+     *
+     * @return the executor.
+     */
+    public static ExecutorService workers() {
+        return workers;
+    }
+
+    /**
+     * Executor of the long media transfers, so a large upload doesn't hold the shared task threads.
+     * <br>
+     * The threads are bounded in any thread mode: the transfers wait in the queue, so a burst of the media doesn't open
+     * hundreds of connections at once.
+     *
+     * @return the executor.
+     */
+    public static ExecutorService media() {
+        return media;
+    }
+
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    private static ThreadFactory platform(String prefix) {
+        AtomicLong counter = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ExecutorService bounded(int threads, ThreadFactory factory) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, IDLE_TIMEOUT, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ExecutorService virtualExecutor(String prefix) throws ReflectiveOperationException {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (InvocationTargetException e) {
+            throw new ReflectiveOperationException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal on the memory-mapped segment files.
+ * <br>
+ * Each record is: payload length (4 bytes), CRC32 of the payload (4 bytes) and the payload. Zero length marks the end of
+ * the written records in the segment, so the reader moves to the next segment. Records are written to the mapped memory,
+ * so they survive the crash of the process. To survive the crash of the OS or the power loss the writer calls
+ * {@link #force()} before it confirms the record: the concurrent writers share one fsync (group commit), so the cost is
+ * one disk flush per group of records rather than per record.
+ * <br>
+ * The consumer reads the records from the checkpoint ({@link #peek()}, {@link #next(Record)}) and moves the checkpoint
+ * after the record has been processed ({@link #ack(Record)}). Segments before the checkpoint are deleted.
+ * After the restart the journal returns all records after the checkpoint; a torn record at the end is discarded.
+ * <br>
+ * The idle journal can {@link #release()} its segments, they are mapped again on the next access.
+ */
+public class Journal implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Journal.class);
+
+    /**
+     * Default size of the segment file.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Size of the record header: length and CRC32.
+     */
+    static final int HEADER_SIZE = 8;
+
+    /**
+     * Size of the checkpoint: segment (8 bytes) and offset (4 bytes).
+     */
+    private static final int CHECKPOINT_SIZE = 12;
+
+    private static final int OFFSET_BITS = 32;
+
+    private static final long OFFSET_MASK = 0xFFFFFFFFL;
+
+    private static final String CHECKPOINT = "checkpoint";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final Pattern SEGMENT = Pattern.compile("(\\d+)\\.seg");
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Map<Long, MappedByteBuffer> segments = new HashMap<>();
+    private final MappedByteBuffer checkpoint;
+    private long readSegment;
+    private int readOffset;
+    private long writeSegment;
+    private int writeOffset;
+    private final Object forceLock = new Object();
+    private long forced;
+    private boolean newSegments = false;
+
+    public Journal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public Journal(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        try (FileChannel channel = FileChannel.open(directory.resolve(CHECKPOINT), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+            this.checkpoint = channel.map(FileChannel.MapMode.READ_WRITE, 0, CHECKPOINT_SIZE);
+        }
+
+        List<Long> existing = existingSegments();
+        long checkpointSegment = checkpoint.getLong(0);
+        if (existing.isEmpty() || !existing.contains(checkpointSegment)) {
+            readSegment = existing.isEmpty() ? 0L : existing.get(0);
+            readOffset = 0;
+            checkpoint.putLong(0, readSegment);
+            checkpoint.putInt(Long.BYTES, readOffset);
+        } else {
+            readSegment = checkpointSegment;
+            readOffset = checkpoint.getInt(Long.BYTES);
+        }
+        writeSegment = existing.isEmpty() ? readSegment : existing.get(existing.size() - 1);
+        writeOffset = recover(writeSegment, writeSegment == readSegment ? readOffset : 0);
+        forced = position(writeSegment, writeOffset);
+        compact();
+    }
+
+    /**
+     * Append the record.
+     *
+     * @param payload record payload, not empty.
+     * @return the position of the record.
+     * @throws IOException when cannot write the record.
+     */
+    public synchronized long append(byte[] payload) throws IOException {
+        if (payload.length == 0 || payload.length > segmentSize - HEADER_SIZE * 2) {
+            throw new IOException("Wrong size of the record: " + payload.length);
+        }
+        if (writeOffset + HEADER_SIZE + payload.length + HEADER_SIZE > segmentSize) {
+            writeSegment++;
+            writeOffset = 0;
+        }
+        MappedByteBuffer segment = segment(writeSegment);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        long position = position(writeSegment, writeOffset);
+
+        segment.putInt(writeOffset + Integer.BYTES, (int) crc.getValue());
+        for (int i = 0; i < payload.length; i++) {
+            segment.put(writeOffset + HEADER_SIZE + i, payload[i]);
+        }
+        // the length is written the last, so the reader never sees the partial record.
+        segment.putInt(writeOffset, payload.length);
+        writeOffset += HEADER_SIZE + payload.length;
+        return position;
+    }
+
+    /**
+     * Retrieve the first record after the checkpoint.
+     *
+     * @return the record or {@code null} if the journal is empty.
+     * @throws IOException when cannot read the record.
+     */
+    public synchronized Record peek() throws IOException {
+        return read(readSegment, readOffset);
+    }
+
+    /**
+     * Retrieve the record after the specified one.
+     *
+     * @param previous previous record.
+     * @return the next record or {@code null} if there isn't any.
+     * @throws IOException when cannot read the record.
+     */
+    public synchronized Record next(Record previous) throws IOException {
+        return read(segmentOf(previous.getNext()), offsetOf(previous.getNext()));
+    }
+
+    /**
+     * Move the checkpoint after the processed record and delete the consumed segments.
+     *
+     * @param record processed record.
+     * @throws IOException when cannot delete the segments.
+     */
+    public synchronized void ack(Record record) throws IOException {
+        if (record.getNext() <= position(readSegment, readOffset)) {
+            return;
+        }
+        readSegment = segmentOf(record.getNext());
+        readOffset = offsetOf(record.getNext());
+        checkpoint.putLong(0, readSegment);
+        checkpoint.putInt(Long.BYTES, readOffset);
+        compact();
+    }
+
+    /**
+     * Check that all records have been acknowledged.
+     *
+     * @return {@code true} if the journal is empty.
+     * @throws IOException when cannot read the journal.
+     */
+    public synchronized boolean isEmpty() throws IOException {
+        return peek() == null;
+    }
+
+    /**
+     * Force the records which have been appended before this call to the disk.
+     * <br>
+     * The writers which call this method while another writer is forcing the journal wait for it and return without the
+     * second flush if their records have been forced too. Appends aren't blocked during the flush.
+     *
+     * @throws IOException when cannot sync the journal directory.
+     */
+    public void force() throws IOException {
+        long target;
+        synchronized (this) {
+            target = position(writeSegment, writeOffset);
+        }
+        synchronized (forceLock) {
+            if (forced >= target) {
+                return;
+            }
+            long end;
+            List<MappedByteBuffer> dirty = new ArrayList<>();
+            boolean created;
+            synchronized (this) {
+                end = position(writeSegment, writeOffset);
+                for (long number = segmentOf(forced); number <= writeSegment; number++) {
+                    MappedByteBuffer segment = segments.get(number);
+                    if (segment != null) {
+                        dirty.add(segment);
+                    }
+                }
+                created = newSegments;
+                newSegments = false;
+            }
+            dirty.forEach(MappedByteBuffer::force);
+            if (created) {
+                try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                    channel.force(true);
+                } catch (IOException e) {
+                    LOGGER.debug("Cannot sync the directory " + directory, e);
+                }
+            }
+            forced = end;
+        }
+    }
+
+    /**
+     * Force all records and the checkpoint to the disk.
+     */
+    public synchronized void sync() {
+        segments.values().forEach(MappedByteBuffer::force);
+        checkpoint.force();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Force the records to the disk and drop the mapped segments, so the idle journal doesn't hold the memory. The segments
+     * are mapped again on the next access.
+     */
+    public synchronized void release() {
+        sync();
+        segments.clear();
+    }
+
+    @Override
+    public synchronized void close() {
+        release();
+    }
+
+    private Record read(long segmentNumber, int offset) throws IOException {
+        long current = segmentNumber;
+        int currentOffset = offset;
+        while (true) {
+            if (current > writeSegment || current == writeSegment && currentOffset >= writeOffset) {
+                return null;
+            }
+            int length = currentOffset + HEADER_SIZE <= segmentSize ? segment(current).getInt(currentOffset) : 0;
+            if (length == 0) {
+                current++;
+                currentOffset = 0;
+                continue;
+            }
+            MappedByteBuffer segment = segment(current);
+            byte[] payload = new byte[length];
+            for (int i = 0; i < length; i++) {
+                payload[i] = segment.get(currentOffset + HEADER_SIZE + i);
+            }
+            return new Record(position(current, currentOffset), payload, position(current, currentOffset + HEADER_SIZE + length));
+        }
+    }
+
+    /**
+     * Find the end of the written records and clear the torn record after them.
+     */
+    private int recover(long segmentNumber, int offset) throws IOException {
+        MappedByteBuffer segment = segment(segmentNumber);
+        int current = offset;
+        while (current + HEADER_SIZE <= segmentSize) {
+            int length = segment.getInt(current);
+            if (length <= 0 || current + HEADER_SIZE + length > segmentSize) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < length; i++) {
+                crc.update(segment.get(current + HEADER_SIZE + i));
+            }
+            if ((int) crc.getValue() != segment.getInt(current + Integer.BYTES)) {
+                LOGGER.warn("Discard the torn record at {}:{} of the {}", segmentNumber, current, directory);
+                break;
+            }
+            current += HEADER_SIZE + length;
+        }
+        for (int i = current; i < segmentSize; i++) {
+            segment.put(i, (byte) 0);
+        }
+        return current;
+    }
+
+    private void compact() throws IOException {
+        Iterator<Map.Entry<Long, MappedByteBuffer>> iterator = segments.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey() < readSegment) {
+                iterator.remove();
+            }
+        }
+        for (Long number : existingSegments()) {
+            if (number < readSegment) {
+                Files.deleteIfExists(segmentPath(number));
+            }
+        }
+    }
+
+    private MappedByteBuffer segment(long number) throws IOException {
+        MappedByteBuffer segment = segments.get(number);
+        if (segment == null) {
+            try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            segments.put(number, segment);
+            newSegments = true;
+        }
+        return segment;
+    }
+
+    private List<Long> existingSegments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    numbers.add(Long.parseLong(matcher.group(1)));
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        numbers.sort(Long::compare);
+        return numbers;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%020d%s", number, SEGMENT_SUFFIX));
+    }
+
+    private static long position(long segment, int offset) {
+        return segment << OFFSET_BITS | offset;
+    }
+
+    private static long segmentOf(long position) {
+        return position >>> OFFSET_BITS;
+    }
+
+    private static int offsetOf(long position) {
+        return (int) (position & OFFSET_MASK);
+    }
+
+    /**
+     * Record of the journal.
+     */
+    public static class Record {
+
+        private final long position;
+        private final byte[] payload;
+        private final long next;
+
+        Record(long position, byte[] payload, long next) {
+            this.position = position;
+            this.payload = payload;
+            this.next = next;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        /**
+         * Position after the record.
+         *
+         * @return next position.
+         */
+        public long getNext() {
+            return next;
+        }
+    }
+}
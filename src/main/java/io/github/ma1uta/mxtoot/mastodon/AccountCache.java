@@ -0,0 +1,88 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.sys1yagi.mastodon4j.api.entity.Account;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Cache of the resolved accounts (acct to account) of the one mastodon instance.
+ */
+public class AccountCache {
+
+    /**
+     * Default count of the accounts to keep.
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int capacity;
+    private final Map<String, Account> accounts;
+
+    public AccountCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public AccountCache(int capacity) {
+        this.capacity = capacity;
+        this.accounts = new LinkedHashMap<String, Account>(capacity, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Account> eldest) {
+                return size() > AccountCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Remember the account.
+     *
+     * @param account account.
+     */
+    public synchronized void put(Account account) {
+        if (account != null && account.getAcct() != null) {
+            accounts.put(key(account.getAcct()), account);
+        }
+    }
+
+    /**
+     * Find the account by acct.
+     *
+     * @param acct acct (username or username@domain).
+     * @return account or {@code null} if it isn't cached.
+     */
+    public synchronized Account get(String acct) {
+        return accounts.get(key(acct));
+    }
+
+    /**
+     * Forget the stale account.
+     *
+     * @param acct acct (username or username@domain).
+     */
+    public synchronized void remove(String acct) {
+        accounts.remove(key(acct));
+    }
+
+    private String key(String acct) {
+        String trimmed = acct.trim();
+        return (trimmed.startsWith("@") ? trimmed.substring(1) : trimmed).toLowerCase(Locale.ROOT);
+    }
+}
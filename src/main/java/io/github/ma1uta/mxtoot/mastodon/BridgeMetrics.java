@@ -0,0 +1,135 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the bridge pipeline of the one mastodon instance.
+ * <br>
+ * Metric names contain the instance: {@code mxtoot.<server>.<stage>}, they are exposed on the admin port.
+ */
+public class BridgeMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BridgeMetrics.class);
+
+    private static volatile MetricRegistry registry = new MetricRegistry();
+
+    private final Meter events;
+    private final Timer parse;
+    private final Timer render;
+    private final Timer queue;
+    private final Timer send;
+    private final Timer lag;
+
+    protected BridgeMetrics(String server) {
+        String prefix = MetricRegistry.name("mxtoot", server.replace('.', '_'));
+        MetricRegistry metrics = registry;
+        this.events = metrics.meter(MetricRegistry.name(prefix, "stream", "events"));
+        this.parse = metrics.timer(MetricRegistry.name(prefix, "stream", "parse"));
+        this.render = metrics.timer(MetricRegistry.name(prefix, "render"));
+        this.queue = metrics.timer(MetricRegistry.name(prefix, "queue"));
+        this.send = metrics.timer(MetricRegistry.name(prefix, "send"));
+        this.lag = metrics.timer(MetricRegistry.name(prefix, "lag"));
+    }
+
+    /**
+     * Use the application's registry. Should be invoked before the first bot starts.
+     *
+     * @param metricRegistry the application's registry.
+     */
+    public static void init(MetricRegistry metricRegistry) {
+        registry = metricRegistry;
+    }
+
+    public static MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Rate of the streamed events.
+     *
+     * @return meter.
+     */
+    public Meter events() {
+        return events;
+    }
+
+    /**
+     * Time to read and parse the streamed event.
+     *
+     * @return timer.
+     */
+    public Timer parse() {
+        return parse;
+    }
+
+    /**
+     * Time to fetch missing statuses and render the template.
+     *
+     * @return timer.
+     */
+    public Timer render() {
+        return render;
+    }
+
+    /**
+     * Time between the message is queued to the room and the sending starts (the wait for the previous messages of the room,
+     * the pace and the retries of the outbox).
+     *
+     * @return timer.
+     */
+    public Timer queue() {
+        return queue;
+    }
+
+    /**
+     * Time to send the message to the matrix room.
+     *
+     * @return timer.
+     */
+    public Timer send() {
+        return send;
+    }
+
+    /**
+     * Record the time between the status creation and its delivery to the matrix.
+     *
+     * @param createdAt creation time of the status in the ISO format.
+     */
+    public void lag(String createdAt) {
+        if (createdAt == null) {
+            return;
+        }
+        try {
+            long millis = System.currentTimeMillis() - Instant.parse(createdAt).toEpochMilli();
+            if (millis >= 0) {
+                lag.update(millis, TimeUnit.MILLISECONDS);
+            }
+        } catch (DateTimeParseException e) {
+            LOGGER.debug("Unknown date format: " + createdAt);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.google.gson.reflect.TypeToken;
+import com.sys1yagi.mastodon4j.MastodonClient;
+import com.sys1yagi.mastodon4j.api.entity.Emoji;
+import io.github.ma1uta.mxtoot.Threads;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Custom emojis of the mastodon instance.
+ * <br>
+ * The list of the emojis is fetched from {@code /api/v1/custom_emojis} and refreshed every {@link #REFRESH_INTERVAL} in the
+ * background. The emoji images are uploaded to the matrix content repository by {@link #upload(String, List, MastodonClient, String,
+ * MediaCache)} before the status is rendered, so {@link #render(String, List, MediaCache)} never blocks the stream.
+ * <br>
+ * Shortcodes are replaced only in the text of the content, attributes and the text inside {@code <code>} and {@code <pre>}
+ * are kept as is.
+ */
+public class EmojiCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmojiCache.class);
+
+    /**
+     * How often to refresh the list of the custom emojis.
+     */
+    public static final long REFRESH_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Height of the inline emoji image.
+     */
+    private static final int EMOJI_HEIGHT = 32;
+
+    private static final Pattern SHORTCODE = Pattern.compile(":(\\w+):");
+
+    private static final Set<String> SKIPPED = new HashSet<>(Arrays.asList("code", "pre"));
+
+    private volatile Map<String, String> urls = Collections.emptyMap();
+    private volatile long refreshed = 0L;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    /**
+     * Upload the images of the emojis used in the content.
+     *
+     * @param content      status content.
+     * @param statusEmojis emojis of the status (they may come from other instances).
+     * @param client       mastodon client to refresh the emoji list.
+     * @param userId       bot's user id to upload images.
+     * @param mediaCache   upload cache.
+     * @return completes when the images are uploaded.
+     */
+    public CompletableFuture<Void> upload(String content, List<Emoji> statusEmojis, MastodonClient client, String userId,
+                                          MediaCache mediaCache) {
+        if (content == null || content.indexOf(':') < 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        refreshIfNeeded(client);
+
+        Map<String, String> statusUrls = statusUrls(statusEmojis);
+        List<CompletableFuture<String>> uploads = new ArrayList<>();
+        for (TextNode node : textNodes(Jsoup.parseBodyFragment(content).body())) {
+            Matcher matcher = SHORTCODE.matcher(node.getWholeText());
+            while (matcher.find()) {
+                String url = url(matcher.group(1), statusUrls);
+                if (url != null) {
+                    uploads.add(mediaCache.fetch(url, userId));
+                }
+            }
+        }
+        return CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Replace the emoji shortcodes with the inline images of the uploaded emojis.
+     *
+     * @param content      status content.
+     * @param statusEmojis emojis of the status (they may come from other instances).
+     * @param mediaCache   upload cache.
+     * @return the content with the inline emojis.
+     */
+    public String render(String content, List<Emoji> statusEmojis, MediaCache mediaCache) {
+        if (content == null || content.indexOf(':') < 0) {
+            return content;
+        }
+
+        Map<String, String> statusUrls = statusUrls(statusEmojis);
+        Document document = Jsoup.parseBodyFragment(content);
+        document.outputSettings().prettyPrint(false);
+        boolean replaced = false;
+        for (TextNode node : textNodes(document.body())) {
+            String text = node.getWholeText();
+            Matcher matcher = SHORTCODE.matcher(text);
+            List<Node> parts = new ArrayList<>();
+            int start = 0;
+            while (matcher.find()) {
+                String shortcode = matcher.group(1);
+                String mxc = mediaCache.lookup(url(shortcode, statusUrls));
+                if (mxc == null) {
+                    continue;
+                }
+                if (matcher.start() > start) {
+                    parts.add(new TextNode(text.substring(start, matcher.start())));
+                }
+                parts.add(new Element("img").attr("data-mx-emoticon", "").attr("src", mxc).attr("alt", ":" + shortcode + ":")
+                    .attr("title", ":" + shortcode + ":").attr("height", Integer.toString(EMOJI_HEIGHT)));
+                start = matcher.end();
+            }
+            if (parts.isEmpty()) {
+                continue;
+            }
+            if (start < text.length()) {
+                parts.add(new TextNode(text.substring(start)));
+            }
+            parts.forEach(node::before);
+            node.remove();
+            replaced = true;
+        }
+        return replaced ? document.body().html() : content;
+    }
+
+    private Map<String, String> statusUrls(List<Emoji> statusEmojis) {
+        Map<String, String> statusUrls = new HashMap<>();
+        if (statusEmojis != null) {
+            statusEmojis.stream().filter(Objects::nonNull).forEach(emoji -> statusUrls.put(emoji.getShortcode(), emoji.getUrl()));
+        }
+        return statusUrls;
+    }
+
+    private String url(String shortcode, Map<String, String> statusUrls) {
+        String url = statusUrls.get(shortcode);
+        return url != null ? url : urls.get(shortcode);
+    }
+
+    private static List<TextNode> textNodes(Element root) {
+        List<TextNode> nodes = new ArrayList<>();
+        collect(root, nodes);
+        return nodes;
+    }
+
+    private static void collect(Element element, List<TextNode> nodes) {
+        if (SKIPPED.contains(element.tagName())) {
+            return;
+        }
+        for (Node child : element.childNodes()) {
+            if (child instanceof TextNode) {
+                nodes.add((TextNode) child);
+            } else if (child instanceof Element) {
+                collect((Element) child, nodes);
+            }
+        }
+    }
+
+    /**
+     * Refresh the list of the emojis in the background.
+     *
+     * @param client mastodon client.
+     */
+    protected void refreshIfNeeded(MastodonClient client) {
+        if (refreshed + REFRESH_INTERVAL > System.currentTimeMillis() || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Threads.tasks().execute(() -> refresh(client));
+        } catch (RuntimeException e) {
+            refreshing.set(false);
+            LOGGER.error("Cannot refresh custom emojis", e);
+        }
+    }
+
+    protected void refresh(MastodonClient client) {
+        try (Response response = client.get("custom_emojis", null)) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                LOGGER.error("Cannot fetch custom emojis: " + response.code());
+                return;
+            }
+            List<Emoji> emojis = client.getSerializer().fromJson(body.string(), new TypeToken<List<Emoji>>() {
+            }.getType());
+            Map<String, String> fetched = new HashMap<>();
+            emojis.stream().filter(Objects::nonNull).forEach(emoji -> fetched.put(emoji.getShortcode(), emoji.getUrl()));
+            urls = fetched;
+        } catch (Exception e) {
+            LOGGER.error("Cannot fetch custom emojis", e);
+        } finally {
+            refreshed = System.currentTimeMillis();
+            refreshing.set(false);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import io.github.ma1uta.mxtoot.matrix.MxTootEvent;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory index of the recently bridged matrix events.
+ * <br>
+ * Keeps the last {@link #capacity} events, older ones are looked up in the database. The rooms of the recent events are kept
+ * by the status to redact them when the status is deleted.
+ */
+public class EventIndex {
+
+    /**
+     * Default count of the events to keep in memory.
+     */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int capacity;
+    private final Map<String, MxTootEvent> events;
+    private final Map<Long, Map<String, String>> rooms;
+
+    public EventIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public EventIndex(int capacity) {
+        this.capacity = capacity;
+        this.events = new LinkedHashMap<String, MxTootEvent>(capacity, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MxTootEvent> eldest) {
+                return size() > EventIndex.this.capacity;
+            }
+        };
+        this.rooms = new LinkedHashMap<Long, Map<String, String>>(capacity, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Map<String, String>> eldest) {
+                return size() > EventIndex.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Add a new event.
+     *
+     * @param event bridged event.
+     */
+    public synchronized void put(MxTootEvent event) {
+        events.put(event.getEventId(), event);
+    }
+
+    /**
+     * Find the event.
+     *
+     * @param eventId matrix event id.
+     * @return bridged event or {@code null} if it isn't in memory.
+     */
+    public synchronized MxTootEvent get(String eventId) {
+        return events.get(eventId);
+    }
+
+    /**
+     * Remember the room of the sent event.
+     *
+     * @param statusId mastodon status id.
+     * @param roomId   room id.
+     * @param eventId  matrix event id.
+     */
+    public synchronized void sent(Long statusId, String roomId, String eventId) {
+        rooms.computeIfAbsent(statusId, key -> new LinkedHashMap<>()).put(eventId, roomId);
+    }
+
+    /**
+     * Forget the recent events of the deleted status.
+     *
+     * @param statusId mastodon status id.
+     * @return rooms of the events by the event ids.
+     */
+    public synchronized Map<String, String> removeStatus(long statusId) {
+        Map<String, String> sent = rooms.remove(statusId);
+        return sent != null ? sent : Collections.emptyMap();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import okhttp3.OkHttpClient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared http client of the mastodon clients.
+ * <br>
+ * All bots use builders derived from the one client, so they share the connection pool and the dispatcher.
+ * <br>
+ * The calls of the commands and the postings are limited by the call timeout, so a hung server doesn't hold the worker
+ * which runs the command. The streams have only the read timeout.
+ */
+public final class HttpClients {
+
+    /**
+     * Default timeout of the whole call in milliseconds.
+     */
+    public static final long DEFAULT_CALL_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private static volatile OkHttpClient shared = new OkHttpClient();
+
+    private static volatile long callTimeout = DEFAULT_CALL_TIMEOUT;
+
+    private HttpClients() {
+    }
+
+    /**
+     * Create a new builder which shares the connection pool and the dispatcher.
+     *
+     * @return the http client builder.
+     */
+    public static OkHttpClient.Builder newBuilder() {
+        return shared.newBuilder();
+    }
+
+    /**
+     * Create a new builder of the client for the requests (not for the streams) with the call timeout.
+     *
+     * @return the http client builder.
+     */
+    public static OkHttpClient.Builder requests() {
+        return shared.newBuilder().callTimeout(callTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set the timeout of the requests. Should be invoked before the first bot starts.
+     *
+     * @param timeout timeout of the whole call in milliseconds, 0 to disable.
+     */
+    public static void setCallTimeout(long timeout) {
+        callTimeout = timeout;
+    }
+
+    /**
+     * Replace the shared client (to use a proxy or a stand-in server). Should be invoked before the first bot starts.
+     *
+     * @param client the http client.
+     */
+    public static void setShared(OkHttpClient client) {
+        shared = client;
+    }
+}
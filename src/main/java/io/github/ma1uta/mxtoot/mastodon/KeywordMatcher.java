@@ -0,0 +1,143 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton which finds any of the keywords in the one pass over the text.
+ * <br>
+ * Matching is case insensitive and finds whole words only: {@code cat} doesn't match {@code category}. The text should be
+ * the plain text of the status (without html tags and entities).
+ */
+public class KeywordMatcher {
+
+    private final Node root = new Node();
+
+    public KeywordMatcher(Collection<String> keywords) {
+        for (String keyword : keywords) {
+            if (keyword.isEmpty()) {
+                continue;
+            }
+            String lower = lower(keyword);
+            Node node = root;
+            for (char ch : lower.toCharArray()) {
+                node = node.next.computeIfAbsent(ch, key -> new Node());
+            }
+            node.keywords.add(lower);
+        }
+
+        Queue<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        for (Node child : root.next.values()) {
+            child.fail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (Map.Entry<Character, Node> entry : node.next.entrySet()) {
+                Node child = entry.getValue();
+                Node fail = node.fail;
+                while (fail != root && !fail.next.containsKey(entry.getKey())) {
+                    fail = fail.fail;
+                }
+                Node target = fail.next.get(entry.getKey());
+                child.fail = target != null && target != child ? target : root;
+                child.keywords.addAll(child.fail.keywords);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Check that the text contains any of the keywords as a whole word.
+     *
+     * @param text plain text.
+     * @return {@code true} if any keyword is found.
+     */
+    public boolean matches(String text) {
+        if (text == null || root.next.isEmpty()) {
+            return false;
+        }
+        Node node = root;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = Character.toLowerCase(text.charAt(i));
+            while (node != root && !node.next.containsKey(ch)) {
+                node = node.fail;
+            }
+            Node next = node.next.get(ch);
+            node = next != null ? next : root;
+            for (String keyword : node.keywords) {
+                if (bounded(text, i - keyword.length() + 1, i + 1, keyword)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check the word boundaries around the found keyword. The keyword which starts or ends with a non-word character
+     * (for example {@code #tag}) needs no boundary on that side.
+     *
+     * @param text    text.
+     * @param start   start of the keyword in the text.
+     * @param end     end of the keyword in the text.
+     * @param keyword found keyword.
+     * @return {@code true} if the keyword is the whole word.
+     */
+    private static boolean bounded(String text, int start, int end, String keyword) {
+        boolean before = start == 0 || !isWord(keyword.charAt(0)) || !isWord(text.charAt(start - 1));
+        boolean after = end == text.length() || !isWord(keyword.charAt(keyword.length() - 1)) || !isWord(text.charAt(end));
+        return before && after;
+    }
+
+    /**
+     * Lower the case char by char like the text is lowered in {@link #matches(String)}: the result doesn't depend on the default
+     * locale and has the same length, so the keyword's position in the text is exact.
+     *
+     * @param keyword keyword.
+     * @return the keyword in the lower case.
+     */
+    private static String lower(String keyword) {
+        char[] chars = keyword.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static boolean isWord(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_';
+    }
+
+    /**
+     * State of the automaton.
+     */
+    private static class Node {
+
+        private final Map<Character, Node> next = new HashMap<>();
+        private Node fail;
+        private final List<String> keywords = new ArrayList<>();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Data shared by all bots of the one mastodon instance.
+ */
+public class MastodonInstance {
+
+    private static final Map<String, MastodonInstance> INSTANCES = new ConcurrentHashMap<>();
+
+    private final String server;
+    private final AccountCache accounts = new AccountCache();
+    private final BridgeMetrics metrics;
+    private final EmojiCache emojis = new EmojiCache();
+
+    protected MastodonInstance(String server) {
+        this.server = server;
+        this.metrics = new BridgeMetrics(server);
+    }
+
+    /**
+     * Retrieve the shared data of the mastodon instance.
+     *
+     * @param server mastodon server.
+     * @return shared data.
+     */
+    public static MastodonInstance of(String server) {
+        return INSTANCES.computeIfAbsent(server.trim().toLowerCase(Locale.ROOT), MastodonInstance::new);
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public AccountCache getAccounts() {
+        return accounts;
+    }
+
+    public BridgeMetrics getMetrics() {
+        return metrics;
+    }
+
+    public EmojiCache getEmojis() {
+        return emojis;
+    }
+}
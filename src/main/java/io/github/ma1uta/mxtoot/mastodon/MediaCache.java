@@ -0,0 +1,284 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import io.github.ma1uta.mxtoot.Threads;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the media attachments uploaded to the matrix content repository.
+ * <br>
+ * Files are streamed from the mastodon to a temporary file (computing the hash on the fly) and then from the file to the
+ * homeserver, so the whole file never stays in the heap. Uploaded files are looked up by the remote url and by the
+ * content hash, so the same file boosted by many accounts or seen by many bots is uploaded once.
+ * <br>
+ * Uploads run in the {@link Threads#media()} executor, the renderers wait for them without blocking the streams (see
+ * {@link #fetch(String, String)}). Failed urls aren't retried for {@link #FAILURE_TTL}.
+ */
+public class MediaCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MediaCache.class);
+
+    /**
+     * Count of the cached urls and hashes.
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /**
+     * Max size of the uploaded file.
+     */
+    public static final long MAX_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * How long the failed url isn't retried.
+     */
+    public static final long FAILURE_TTL = TimeUnit.MINUTES.toMillis(10);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static volatile MediaCache instance;
+
+    private final String homeserverUrl;
+    private final String asToken;
+    private final OkHttpClient client;
+    private final Map<String, String> byUrl = lru(DEFAULT_CAPACITY);
+    private final Map<String, String> byHash = lru(DEFAULT_CAPACITY);
+    private final Map<String, Long> failures = lru(DEFAULT_CAPACITY);
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    public MediaCache(String homeserverUrl, String asToken, OkHttpClient client) {
+        this.homeserverUrl = homeserverUrl.endsWith("/") ? homeserverUrl.substring(0, homeserverUrl.length() - 1) : homeserverUrl;
+        this.asToken = asToken;
+        this.client = client;
+    }
+
+    /**
+     * Enable media bridging.
+     *
+     * @param homeserverUrl homeserver url.
+     * @param asToken       application service token.
+     * @param enabled       {@code true} to upload attachments to the homeserver.
+     */
+    public static void init(String homeserverUrl, String asToken, boolean enabled) {
+        instance = enabled ? new MediaCache(homeserverUrl, asToken, HttpClients.newBuilder().build()) : null;
+    }
+
+    /**
+     * Retrieve the media cache.
+     *
+     * @return the media cache or {@code null} if media bridging is disabled.
+     */
+    public static MediaCache get() {
+        return instance;
+    }
+
+    /**
+     * Find the uploaded attachment.
+     *
+     * @param url attachment url.
+     * @return mxc uri or {@code null} if the attachment isn't uploaded yet or cannot be uploaded.
+     */
+    public String lookup(String url) {
+        return url == null || url.isEmpty() ? null : cached(byUrl, url);
+    }
+
+    /**
+     * Upload the attachment to the matrix content repository in the background if it isn't uploaded yet.
+     *
+     * @param url    attachment url.
+     * @param userId bot's user id.
+     * @return mxc uri or {@code null} if the attachment cannot be uploaded.
+     */
+    public CompletableFuture<String> fetch(String url, String userId) {
+        if (url == null || url.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String cached = cached(byUrl, url);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        Long failedAt = cached(failures, url);
+        if (failedAt != null && failedAt + FAILURE_TTL > System.currentTimeMillis()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(url, future);
+        if (running != null) {
+            return running;
+        }
+        Threads.media().execute(() -> {
+            String mxc = null;
+            try {
+                mxc = upload(url, userId);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Cannot upload the attachment: " + url, e);
+            } finally {
+                if (mxc != null) {
+                    cache(byUrl, url, mxc);
+                } else {
+                    cache(failures, url, System.currentTimeMillis());
+                }
+                inFlight.remove(url);
+                future.complete(mxc);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Upload the attachment and wait for the result. Shouldn't be invoked in the stream's thread.
+     *
+     * @param url    attachment url.
+     * @param userId bot's user id.
+     * @return mxc uri or {@code null} if the attachment cannot be uploaded.
+     */
+    public String mxc(String url, String userId) {
+        return fetch(url, userId).join();
+    }
+
+    protected String upload(String url, String userId) throws IOException {
+        Path file = Files.createTempFile("mxtoot-media", null);
+        try {
+            String contentType;
+            String hash;
+            try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                ResponseBody body = response.body();
+                if (!response.isSuccessful() || body == null) {
+                    throw new IOException("Cannot download: " + response.code());
+                }
+                if (body.contentLength() > MAX_SIZE) {
+                    throw new IOException("Too large attachment: " + body.contentLength());
+                }
+                MediaType mediaType = body.contentType();
+                contentType = mediaType != null ? mediaType.toString() : "application/octet-stream";
+                hash = download(body.byteStream(), file);
+            }
+
+            String mxc = cached(byHash, hash);
+            if (mxc == null) {
+                mxc = post(file, contentType, filename(url), userId);
+                cache(byHash, hash, mxc);
+            }
+            return mxc;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    protected String download(InputStream stream, Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream input = new DigestInputStream(stream, digest); OutputStream output = Files.newOutputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long total = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                total += read;
+                if (total > MAX_SIZE) {
+                    throw new IOException("Too large attachment: " + total);
+                }
+                output.write(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    protected String post(Path file, String contentType, String filename, String userId) throws IOException {
+        HttpUrl url = HttpUrl.parse(homeserverUrl + "/_matrix/media/r0/upload");
+        if (url == null) {
+            throw new IOException("Wrong homeserver url: " + homeserverUrl);
+        }
+        HttpUrl.Builder builder = url.newBuilder().addQueryParameter("filename", filename).addQueryParameter("access_token", asToken);
+        if (userId != null) {
+            builder.addQueryParameter("user_id", userId);
+        }
+        Request request = new Request.Builder().url(builder.build())
+            .post(RequestBody.create(MediaType.parse(contentType), file.toFile())).build();
+        try (Response response = client.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("Cannot upload: " + response.code());
+            }
+            JsonElement contentUri = new JsonParser().parse(body.string()).getAsJsonObject().get("content_uri");
+            if (contentUri == null) {
+                throw new IOException("Homeserver didn't return the content uri");
+            }
+            return contentUri.getAsString();
+        }
+    }
+
+    protected String filename(String url) {
+        String path = url.replaceFirst("[?#].*$", "");
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private <T> T cached(Map<String, T> cache, String key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    private <T> void cache(Map<String, T> cache, String key, T value) {
+        synchronized (cache) {
+            cache.put(key, value);
+        }
+    }
+
+    private static <T> Map<String, T> lru(int capacity) {
+        return new LinkedHashMap<String, T>(capacity, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+}
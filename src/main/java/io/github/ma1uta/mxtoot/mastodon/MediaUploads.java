@@ -0,0 +1,238 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.mxtoot.Threads;
+import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
+import io.github.ma1uta.mxtoot.matrix.MxTootDao;
+import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Images and files sent by the owner to the room which will be attached to the next toot.
+ * <br>
+ * Files are streamed from the matrix media repository to the mastodon's {@code /api/v2/media} without buffering
+ * in the heap. Transfers run in the {@link Threads#media()} executor, so a large video doesn't stall other bots.
+ */
+public class MediaUploads {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MediaUploads.class);
+
+    /**
+     * Max count of the attachments of the one toot.
+     */
+    public static final int MAX_ATTACHMENTS = 4;
+
+    /**
+     * Timeout of the media transfer.
+     */
+    private static final long TRANSFER_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Interval between the checks of the media processing.
+     */
+    private static final long POLL_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * Max time to wait for the media processing.
+     */
+    private static final long PROCESSING_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * Partial Content: the media is still being processed.
+     */
+    private static final int PROCESSING = 206;
+
+    private final Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder;
+    /**
+     * The upload streams the download and can't be repeated, so the client doesn't retry the failed connections.
+     */
+    private final OkHttpClient http = HttpClients.newBuilder()
+        .readTimeout(TRANSFER_TIMEOUT, TimeUnit.MILLISECONDS)
+        .writeTimeout(TRANSFER_TIMEOUT, TimeUnit.MILLISECONDS)
+        .retryOnConnectionFailure(false)
+        .build();
+    private final List<CompletableFuture<String>> pending = new ArrayList<>();
+
+    public MediaUploads(Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder) {
+        this.holder = holder;
+    }
+
+    /**
+     * Start uploading the file.
+     *
+     * @param roomId      room to send the notice.
+     * @param downloadUrl url of the file in the matrix media repository.
+     * @param filename    file name.
+     * @param mimeType    mime type or {@code null} if unknown.
+     */
+    public void upload(String roomId, String downloadUrl, String filename, String mimeType) {
+        CompletableFuture<String> upload;
+        synchronized (pending) {
+            if (pending.size() >= MAX_ATTACHMENTS) {
+                notice(roomId, "Cannot attach " + filename + ": a toot can have at most " + MAX_ATTACHMENTS + " attachments.");
+                return;
+            }
+            upload = CompletableFuture.supplyAsync(() -> transfer(downloadUrl, filename, mimeType), Threads.media());
+            pending.add(upload);
+        }
+        upload.whenComplete((mediaId, e) -> {
+            if (e != null) {
+                synchronized (pending) {
+                    pending.remove(upload);
+                }
+                LOGGER.error("Cannot upload " + filename, e);
+                notice(roomId, "Cannot upload " + filename + ": " + e.getMessage());
+            } else {
+                notice(roomId, "Attached " + filename + " to the next toot.");
+            }
+        });
+    }
+
+    /**
+     * Take the pending attachments for the toot.
+     *
+     * @return pending uploads.
+     */
+    public List<CompletableFuture<String>> take() {
+        synchronized (pending) {
+            List<CompletableFuture<String>> taken = new ArrayList<>(pending);
+            pending.clear();
+            return taken;
+        }
+    }
+
+    /**
+     * Wait until the attachments are uploaded and processed by the mastodon.
+     *
+     * @param uploads uploads.
+     * @return media ids.
+     */
+    public CompletableFuture<List<String>> ready(List<CompletableFuture<String>> uploads) {
+        if (uploads.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        return CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0])).thenApplyAsync(ignored -> {
+            List<String> mediaIds = new ArrayList<>(uploads.size());
+            for (CompletableFuture<String> upload : uploads) {
+                String mediaId = upload.join();
+                awaitProcessing(mediaId);
+                mediaIds.add(mediaId);
+            }
+            return mediaIds;
+        }, Threads.media());
+    }
+
+    protected String transfer(String downloadUrl, String filename, String mimeType) {
+        try (Response download = http.newCall(new Request.Builder().url(downloadUrl).get().build()).execute()) {
+            ResponseBody source = download.body();
+            if (!download.isSuccessful() || source == null) {
+                throw new IOException("Cannot download the file: " + download.code() + " " + download.message());
+            }
+            MediaType contentType = mimeType != null ? MediaType.parse(mimeType) : source.contentType();
+            RequestBody file = new RequestBody() {
+                @Override
+                public MediaType contentType() {
+                    return contentType;
+                }
+
+                @Override
+                public long contentLength() {
+                    return source.contentLength();
+                }
+
+                @Override
+                public void writeTo(BufferedSink sink) throws IOException {
+                    sink.writeAll(source.source());
+                }
+            };
+            RequestBody body = new MultipartBody.Builder().setType(MultipartBody.FORM).addFormDataPart("file", filename, file).build();
+            try (Response response = http.newCall(request("v2/media").post(body).build()).execute()) {
+                return mediaId(response);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    protected void awaitProcessing(String mediaId) {
+        long deadline = System.currentTimeMillis() + PROCESSING_TIMEOUT;
+        try {
+            while (true) {
+                try (Response response = http.newCall(request("v1/media/" + mediaId).get().build()).execute()) {
+                    if (response.code() != PROCESSING) {
+                        mediaId(response);
+                        return;
+                    }
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Media " + mediaId + " is still being processed");
+                }
+                Thread.sleep(POLL_INTERVAL);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+    }
+
+    private Request.Builder request(String path) {
+        MxTootConfig config = holder.getConfig();
+        return new Request.Builder().url("https://" + config.getMastodonServer() + "/api/" + path)
+            .header("Authorization", "Bearer " + config.getMastodonAccessToken());
+    }
+
+    private String mediaId(Response response) throws IOException {
+        ResponseBody body = response.body();
+        if (!response.isSuccessful() || body == null) {
+            throw new IOException("Cannot upload the file: " + response.code() + " " + response.message());
+        }
+        JsonElement id = new JsonParser().parse(body.string()).getAsJsonObject().get("id");
+        if (id == null || id.isJsonNull()) {
+            throw new IOException("Mastodon didn't return the media id");
+        }
+        return id.getAsString();
+    }
+
+    private void notice(String roomId, String message) {
+        try {
+            holder.getMatrixClient().event().sendNotice(roomId, message);
+        } catch (RuntimeException e) {
+            LOGGER.error("Cannot send notice", e);
+        }
+    }
+}
@@ -16,12 +16,11 @@
 
 package io.github.ma1uta.mxtoot.mastodon;
 
+import com.codahale.metrics.Timer;
 import com.samskivert.mustache.Mustache;
 import com.samskivert.mustache.MustacheException;
 import com.samskivert.mustache.Template;
 import com.sys1yagi.mastodon4j.MastodonClient;
-import com.sys1yagi.mastodon4j.api.Handler;
-import com.sys1yagi.mastodon4j.api.Shutdownable;
 import com.sys1yagi.mastodon4j.api.entity.Account;
 import com.sys1yagi.mastodon4j.api.entity.Application;
 import com.sys1yagi.mastodon4j.api.entity.Attachment;
@@ -35,60 +34,130 @@ import com.sys1yagi.mastodon4j.api.method.Accounts;
 import com.sys1yagi.mastodon4j.api.method.Statuses;
 import io.github.ma1uta.matrix.bot.Context;
 import io.github.ma1uta.matrix.client.MatrixClient;
+import io.github.ma1uta.mxtoot.Threads;
+import io.github.ma1uta.mxtoot.matrix.DigestState;
+import io.github.ma1uta.mxtoot.matrix.JoinedRooms;
+import io.github.ma1uta.mxtoot.matrix.MatrixSender;
 import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
 import io.github.ma1uta.mxtoot.matrix.MxTootDao;
+import io.github.ma1uta.mxtoot.matrix.MxTootEvent;
 import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
 import org.jsoup.Jsoup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
  * Mastodon client.
  */
-public class MxMastodonClient implements Handler, Supplier<Void> {
+public class MxMastodonClient implements Streaming.LanguageHandler, Supplier<Void> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MxMastodonClient.class);
 
+    /**
+     * How often to delete the old bridged events.
+     */
+    public static final long PRUNE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Default count of hours to keep the bridged events.
+     */
+    public static final int DEFAULT_EVENT_RETENTION = 72;
+
+    private static final String REDACT_REASON = "The status has been deleted";
+
     private final MastodonClient mastodonClient;
+    private final MastodonClient streamingClient;
     private final Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder;
-    private Shutdownable shutdownable;
-    private boolean running = false;
-    private DateTimeFormatter dateTimeFormatter;
-    private Template postTemplate;
-    private Template replyTemplate;
-    private Template boostTemplate;
-    private Template mentionTemplate;
-    private Template favouriteTemplate;
-    private Template followTemplate;
+    private Streaming.Handle shutdownable;
+    private StreamRecorder recorder;
+    private volatile boolean running = false;
+    private final StreamState streamState = new StreamState();
+    private volatile DateTimeFormatter dateTimeFormatter;
+    private volatile Template postTemplate;
+    private volatile Template replyTemplate;
+    private volatile Template boostTemplate;
+    private volatile Template mentionTemplate;
+    private volatile Template favouriteTemplate;
+    private volatile Template followTemplate;
+    private final EventIndex eventIndex = new EventIndex();
+    private TimelineBuffer timelineBuffer;
+    private SearchIndex searchIndex;
+    private NotificationDigest digest;
+    private StatusFilter statusFilter;
+    private final PageCursors pageCursors = new PageCursors();
+    private PostingQueue postingQueue;
+    private MediaUploads mediaUploads;
+    private volatile Outbox outbox;
+    private final Map<String, CompletableFuture<Boolean>> roomTails = new ConcurrentHashMap<>();
+    private volatile long pruned = 0L;
+    private volatile CompletableFuture<Void> rendering = CompletableFuture.completedFuture(null);
 
     public MxMastodonClient(MastodonClient mastodonClient,
                             Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder) {
+        this(mastodonClient, mastodonClient, holder);
+    }
+
+    public MxMastodonClient(MastodonClient mastodonClient, MastodonClient streamingClient,
+                            Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder) {
         this.mastodonClient = mastodonClient;
+        this.streamingClient = streamingClient;
         this.holder = holder;
     }
 
+    /**
+     * Client of the requests, its calls are limited by the call timeout.
+     *
+     * @return the mastodon client.
+     */
     public MastodonClient getMastodonClient() {
         return mastodonClient;
     }
 
+    /**
+     * Client of the stream, without the call timeout.
+     *
+     * @return the mastodon client.
+     */
+    public MastodonClient getStreamingClient() {
+        return streamingClient;
+    }
+
+    /**
+     * Check that streaming has been started and hasn't exited.
+     *
+     * @return {@code true} if the streaming is connected or is reconnecting.
+     */
     public boolean isRunning() {
-        return running;
+        return running && getStreamState().getPhase() != StreamState.Phase.STOPPED;
+    }
+
+    public StreamState getStreamState() {
+        return streamState;
     }
 
     public DateTimeFormatter getDateTimeFormatter() {
         return dateTimeFormatter;
     }
 
-    public void setDateTimeFormatter(DateTimeFormatter dateTimeFormatter) {
+    public synchronized void setDateTimeFormatter(DateTimeFormatter dateTimeFormatter) {
         this.dateTimeFormatter = dateTimeFormatter;
     }
 
@@ -96,7 +165,7 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         return postTemplate;
     }
 
-    public void setPostTemplate(Template postTemplate) {
+    public synchronized void setPostTemplate(Template postTemplate) {
         this.postTemplate = postTemplate;
     }
 
@@ -104,7 +173,7 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         return boostTemplate;
     }
 
-    public void setBoostTemplate(Template boostTemplate) {
+    public synchronized void setBoostTemplate(Template boostTemplate) {
         this.boostTemplate = boostTemplate;
     }
 
@@ -112,7 +181,7 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         return replyTemplate;
     }
 
-    public void setReplyTemplate(Template replyTemplate) {
+    public synchronized void setReplyTemplate(Template replyTemplate) {
         this.replyTemplate = replyTemplate;
     }
 
@@ -120,7 +189,7 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         return mentionTemplate;
     }
 
-    public void setMentionTemplate(Template mentionTemplate) {
+    public synchronized void setMentionTemplate(Template mentionTemplate) {
         this.mentionTemplate = mentionTemplate;
     }
 
@@ -128,7 +197,7 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         return favouriteTemplate;
     }
 
-    public void setFavouriteTemplate(Template favouriteTemplate) {
+    public synchronized void setFavouriteTemplate(Template favouriteTemplate) {
         this.favouriteTemplate = favouriteTemplate;
     }
 
@@ -136,7 +205,7 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         return followTemplate;
     }
 
-    public void setFollowTemplate(Template followTemplate) {
+    public synchronized void setFollowTemplate(Template followTemplate) {
         this.followTemplate = followTemplate;
     }
 
@@ -144,6 +213,117 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         return holder;
     }
 
+    public EventIndex getEventIndex() {
+        return eventIndex;
+    }
+
+    /**
+     * Retrieve the search index of the streamed statuses.
+     *
+     * @return the search index.
+     */
+    public synchronized SearchIndex getSearchIndex() {
+        if (searchIndex == null) {
+            Integer retention = getHolder().getConfig().getSearchRetention();
+            searchIndex = new SearchIndex(retention != null ? retention : SearchIndex.DEFAULT_RETENTION);
+        }
+        return searchIndex;
+    }
+
+    /**
+     * Retrieve the notification digest.
+     *
+     * @return the notification digest.
+     */
+    public synchronized NotificationDigest getDigest() {
+        if (digest == null) {
+            digest = new NotificationDigest(this::writeMessage);
+            if (DigestState.ON.equals(getHolder().getConfig().getDigestState())) {
+                digest.start(digestInterval());
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Interval between notification summaries.
+     *
+     * @return interval in minutes.
+     */
+    public int digestInterval() {
+        Integer interval = getHolder().getConfig().getDigestInterval();
+        return interval != null ? interval : NotificationDigest.DEFAULT_INTERVAL;
+    }
+
+    /**
+     * Retrieve the compiled status filter.
+     *
+     * @return the status filter.
+     */
+    public synchronized StatusFilter getStatusFilter() {
+        if (statusFilter == null) {
+            try {
+                statusFilter = StatusFilter.compile(getHolder().getConfig().getFilters());
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Wrong filter rules", e);
+                statusFilter = StatusFilter.EMPTY;
+            }
+        }
+        return statusFilter;
+    }
+
+    /**
+     * Drop the compiled status filter after the rules have been changed.
+     */
+    public synchronized void resetStatusFilter() {
+        statusFilter = null;
+    }
+
+    public MastodonInstance getInstance() {
+        return MastodonInstance.of(getHolder().getConfig().getMastodonServer());
+    }
+
+    public PageCursors getPageCursors() {
+        return pageCursors;
+    }
+
+    /**
+     * Retrieve the outbound queue of the toots, boosts and favourites.
+     *
+     * @return the posting queue.
+     */
+    public synchronized PostingQueue getPostingQueue() {
+        if (postingQueue == null) {
+            postingQueue = new PostingQueue(getHolder());
+        }
+        return postingQueue;
+    }
+
+    /**
+     * Retrieve the files which will be attached to the next toot.
+     *
+     * @return the media uploads.
+     */
+    public synchronized MediaUploads getMediaUploads() {
+        if (mediaUploads == null) {
+            mediaUploads = new MediaUploads(getHolder());
+        }
+        return mediaUploads;
+    }
+
+    /**
+     * Retrieve the buffer of the last streamed statuses.
+     *
+     * @return the timeline buffer.
+     */
+    public synchronized TimelineBuffer getTimelineBuffer() {
+        if (timelineBuffer == null) {
+            Integer capacity = getHolder().getConfig().getTimelineBufferSize();
+            timelineBuffer = new TimelineBuffer(capacity != null ? capacity : TimelineBuffer.DEFAULT_CAPACITY);
+        }
+        return timelineBuffer;
+    }
+
     /**
      * Start streaming.
      *
@@ -158,12 +338,19 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
             if (this.shutdownable != null) {
                 this.shutdownable.shutdown();
             }
-            this.shutdownable = new Streaming(getMastodonClient(), true,
+            getTimelineBuffer().clear();
+            getStreamState().connecting();
+            closeRecorder();
+            this.recorder = StreamRecorder.forBot(getHolder().getConfig().getUserId());
+            if (this.outbox == null) {
+                this.outbox = Outbox.forBot(this);
+            }
+            this.shutdownable = new Streaming(getStreamingClient(), true,
                 response -> {
                     MatrixClient matrixClient = getHolder().getMatrixClient();
-                    matrixClient.room().joinedRooms().join()
+                    JoinedRooms.of(getHolder()).get()
                         .forEach(roomId -> matrixClient.event().sendNotice(roomId, "Failed start streaming: " + response.message()));
-                }).user(this);
+                }, getInstance().getMetrics(), getStreamState()).recorder(recorder).onConnect(getTimelineBuffer()::clear).user(this);
             this.running = true;
             return true;
         } catch (RuntimeException e) {
@@ -181,35 +368,106 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         if (this.shutdownable != null) {
             this.shutdownable.shutdown();
         }
+        synchronized (this) {
+            if (digest != null) {
+                digest.stop();
+                digest = null;
+            }
+        }
         this.running = false;
+        getStreamState().stopped();
+        getTimelineBuffer().clear();
+        closeRecorder();
+        if (this.outbox != null) {
+            this.outbox.close();
+            this.outbox = null;
+        }
         return null;
     }
 
+    private void closeRecorder() {
+        if (this.recorder != null) {
+            try {
+                this.recorder.close();
+            } catch (IOException e) {
+                LOGGER.error("Cannot close the record", e);
+            }
+            this.recorder = null;
+        }
+    }
+
     @Override
     public void onDelete(long l) {
+        getTimelineBuffer().remove(l);
+        getSearchIndex().remove(l);
+        redact(l);
+    }
 
+    /**
+     * Redact the recently bridged notices of the deleted status.
+     *
+     * @param statusId deleted status id.
+     */
+    protected void redact(long statusId) {
+        Map<String, String> sent = getEventIndex().removeStatus(statusId);
+        MatrixSender sender = MatrixSender.get();
+        if (sent.isEmpty() || sender == null) {
+            return;
+        }
+        String userId = getHolder().getConfig().getUserId();
+        sent.forEach((eventId, roomId) -> sender.redact(userId, roomId, eventId, REDACT_REASON).exceptionally(e -> {
+            LOGGER.error("Cannot redact the event " + eventId + " in the room " + roomId, e);
+            return null;
+        }));
     }
 
     @Override
     public void onStatus(Status status) {
-        writeMessage(writeStatus(status));
+        onStatus(status, null);
+    }
+
+    @Override
+    public void onStatus(Status status, String language) {
+        if (!getStatusFilter().accept(status, language)) {
+            return;
+        }
+        getTimelineBuffer().add(status);
+        getSearchIndex().add(status);
+        AccountCache accountCache = getInstance().getAccounts();
+        accountCache.put(status.getAccount());
+        if (status.getReblog() != null) {
+            accountCache.put(status.getReblog().getAccount());
+        }
+        bridge(status, statusFormat(status), () -> timedRender(status));
     }
 
     @Override
     public void onNotification(Notification notification) {
+        getInstance().getAccounts().put(notification.getAccount());
+        if (DigestState.ON.equals(getHolder().getConfig().getDigestState()) && NotificationDigest.accepts(notification)) {
+            getDigest().add(notification);
+            return;
+        }
+
+        MxTootConfig config = getHolder().getConfig();
         Template template;
+        String format;
         switch (notification.getType()) {
             case "mention":
                 template = mention();
+                format = config.getMentionFormat();
                 break;
             case "reblog":
                 template = reblog();
+                format = config.getBoostFormat();
                 break;
             case "favourite":
                 template = favourite();
+                format = config.getFavouriteFormat();
                 break;
             case "follow":
                 template = follow();
+                format = config.getFollowFormat();
                 break;
             default:
                 writeMessage(String.format("Unknown notification: %s at [%s]: %d", notification.getType(), notification.getCreatedAt(),
@@ -217,93 +475,283 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
                 return;
         }
 
-        Map<String, Object> notificationMap = new HashMap<>();
-        notificationMap.put("id", notification.getId());
-        notificationMap.put("created_at", notification.getCreatedAt());
-        notificationMap.put("account", accountToMap(notification.getAccount()));
-        if (notification.getStatus() != null) {
-            notificationMap.put("status", statusToMap(notification.getStatus(), true));
+        bridge(notification.getStatus(), format, () -> {
+            Map<String, Object> notificationMap = new HashMap<>();
+            notificationMap.put("id", notification.getId());
+            notificationMap.put("created_at", notification.getCreatedAt());
+            notificationMap.put("account", accountToMap(notification.getAccount()));
+            if (notification.getStatus() != null) {
+                notificationMap.put("status", statusToMap(notification.getStatus(), true));
+            }
+            notificationMap.put("type", notification.getType());
+
+            return formatTemplate(template, notificationMap);
+        });
+    }
+
+    /**
+     * Render and send the message when the attachments of the status are uploaded to the homeserver.
+     * <br>
+     * Uploads don't block the stream: the message waits for them in the {@link Threads#tasks()} executor. Messages are sent in the
+     * order of the events, a message without attachments waits for the previous messages too.
+     *
+     * @param status   the status of the message or {@code null}.
+     * @param format   the template of the message.
+     * @param renderer renders the message.
+     */
+    protected void bridge(Status status, String format, Supplier<String> renderer) {
+        CompletableFuture<Void> media = uploadMedia(status, format);
+        CompletableFuture<Void> previous = rendering;
+        if (media.isDone() && previous.isDone()) {
+            writeMessage(renderer.get(), status);
+            return;
         }
-        notificationMap.put("type", notification.getType());
+        rendering = CompletableFuture.allOf(previous, media).thenRunAsync(() -> writeMessage(renderer.get(), status), Threads.tasks())
+            .exceptionally(e -> {
+                LOGGER.error("Cannot bridge the message", e);
+                return null;
+            });
+    }
 
-        String message = formatTemplate(template, notificationMap);
+    /**
+     * Upload custom emojis used in the content of the status (and the boosted status) and, if the template uses them,
+     * attachments and emojis of the status.
+     *
+     * @param status the status or {@code null}.
+     * @param format the template.
+     * @return completes when all uploads are finished, failed uploads are rendered without the {@code mxc_url}.
+     */
+    protected CompletableFuture<Void> uploadMedia(Status status, String format) {
+        MediaCache mediaCache = MediaCache.get();
+        if (mediaCache == null || status == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String userId = getHolder().getConfig().getUserId();
+        boolean templateMedia = format != null && format.contains("mxc_url");
+        List<CompletableFuture<?>> uploads = new ArrayList<>();
+        for (Status source : Arrays.asList(status, status.getReblog())) {
+            if (source == null) {
+                continue;
+            }
+            uploads.add(getInstance().getEmojis().upload(source.getContent(), source.getEmojis(), getMastodonClient(), userId, mediaCache));
+            if (templateMedia) {
+                source.getMediaAttachments().stream().filter(Objects::nonNull)
+                    .forEach(attachment -> uploads.add(mediaCache.fetch(attachment.getUrl(), userId)));
+                source.getEmojis().stream().filter(Objects::nonNull)
+                    .forEach(emoji -> uploads.add(mediaCache.fetch(emoji.getUrl(), userId)));
+            }
+        }
+        return CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0]));
+    }
 
-        writeMessage(message);
+    protected String statusFormat(Status status) {
+        MxTootConfig config = getHolder().getConfig();
+        if (status.getReblog() != null) {
+            return config.getBoostFormat();
+        }
+        return status.getInReplyToId() != null ? config.getReplyFormat() : config.getPostFormat();
     }
 
     protected void writeMessage(String message) {
-        getHolder().runInTransaction((holder, dao) -> {
-            MatrixClient matrixClient = holder.getMatrixClient();
-            try {
-                matrixClient.room().joinedRooms().join()
-                    .forEach(roomId -> matrixClient.event().sendFormattedNotice(roomId, Jsoup.parse(message).text(), message));
-            } catch (RuntimeException e) {
-                LOGGER.error("Failed write a message", e);
+        writeMessage(message, null);
+    }
+
+    /**
+     * Send the message to all joined rooms and remember sent events to find the status by the matrix event later.
+     * <br>
+     * The joined rooms are cached (see {@link JoinedRooms}), so the message doesn't wait for the homeserver. If the {@link Outbox}
+     * is enabled the message is written to the journal of each room and sent from it.
+     *
+     * @param message formatted message.
+     * @param status  the status of the message or {@code null}.
+     */
+    protected void writeMessage(String message, Status status) {
+        List<String> rooms = JoinedRooms.of(getHolder()).get();
+        Outbox currentOutbox = outbox;
+        if (currentOutbox != null) {
+            if (rooms.isEmpty()) {
+                rooms = currentOutbox.knownRooms();
             }
+            for (String roomId : rooms) {
+                try {
+                    currentOutbox.send(roomId, message, status);
+                } catch (IOException e) {
+                    LOGGER.error("Failed write a message to the journal", e);
+                }
+            }
+            return;
+        }
+
+        BridgeMetrics metrics = getInstance().getMetrics();
+        MatrixSender sender = MatrixSender.get();
+        for (String roomId : rooms) {
+            Outbox.Pending pending = status != null ? new Outbox.Pending(roomId, message, status) : null;
+            long queued = System.nanoTime();
+            // keep the order of the messages in the room: the next message starts when the previous one has completed.
+            roomTails.compute(roomId, (key, tail) -> (tail != null ? tail : CompletableFuture.completedFuture(true))
+                .thenCompose(previous -> {
+                    metrics.queue().update(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+                    return send(sender, roomId, message, pending);
+                })
+                .exceptionally(e -> {
+                    LOGGER.error("Failed write a message", e);
+                    return false;
+                }));
+        }
+    }
+
+    /**
+     * Send the message from the journal.
+     *
+     * @param roomId  room id.
+     * @param pending the message.
+     * @return {@code true} if the homeserver has accepted the message, completed exceptionally with the failure otherwise.
+     */
+    protected CompletableFuture<Boolean> deliver(String roomId, Outbox.Pending pending) {
+        BridgeMetrics metrics = getInstance().getMetrics();
+        metrics.queue().update(System.nanoTime() - pending.getQueued(), TimeUnit.NANOSECONDS);
+        return send(MatrixSender.get(), roomId, pending.getMessage(), pending);
+    }
+
+    /**
+     * Send the notice without blocking and remember the bridged status when the homeserver has accepted it.
+     *
+     * @param sender  async matrix sender.
+     * @param roomId  room id.
+     * @param message formatted message.
+     * @param pending the bridged status or {@code null}.
+     * @return {@code true} when the homeserver has accepted the message.
+     */
+    protected CompletableFuture<Boolean> send(MatrixSender sender, String roomId, String message, Outbox.Pending pending) {
+        BridgeMetrics metrics = getInstance().getMetrics();
+        Timer.Context sendTime = metrics.send().time();
+        String userId = getHolder().getConfig().getUserId();
+        String text = Jsoup.parse(message).text();
+        CompletableFuture<String> sent = pending != null && pending.getTxnId() != null
+            ? sender.sendFormattedNotice(userId, roomId, text, message, pending.getTxnId())
+            : sender.sendFormattedNotice(userId, roomId, text, message);
+        return sent.whenComplete((eventId, e) -> sendTime.stop()).thenApplyAsync(eventId -> {
+            if (pending != null && pending.getStatusId() != null && eventId != null) {
+                MxTootEvent event = bridgedEvent(eventId, pending.getStatusId(), pending.getVisibility(), pending.getAccount());
+                getEventIndex().put(event);
+                getEventIndex().sent(pending.getStatusId(), roomId, eventId);
+                getHolder().runInTransaction((holder, dao) -> {
+                    saveEvent(dao, event);
+                });
+            }
+            if (pending != null) {
+                metrics.lag(pending.getCreatedAt());
+            }
+            return true;
+        }, Threads.tasks());
+    }
+
+    /**
+     * Save the bridged event and delete the events older than the bridged event retention once per {@link #PRUNE_INTERVAL}.
+     *
+     * @param dao   dao.
+     * @param event bridged event.
+     */
+    protected void saveEvent(MxTootDao dao, MxTootEvent event) {
+        dao.saveEvent(event);
+        long now = System.currentTimeMillis();
+        if (pruned + PRUNE_INTERVAL > now) {
+            return;
+        }
+        pruned = now;
+        Integer retention = getHolder().getConfig().getBridgedEventRetention();
+        int deleted = dao.deleteEvents(event.getBotId(),
+            LocalDateTime.now().minusHours(retention != null ? retention : DEFAULT_EVENT_RETENTION));
+        if (deleted > 0) {
+            LOGGER.debug("Deleted {} old bridged events of {}", deleted, event.getBotId());
+        }
+    }
+
+    protected MxTootEvent bridgedEvent(String eventId, Long statusId, String visibility, String account) {
+        MxTootEvent event = new MxTootEvent();
+        event.setEventId(eventId);
+        event.setBotId(getHolder().getConfig().getUserId());
+        event.setStatusId(statusId);
+        event.setVisibility(visibility);
+        event.setAccount(account);
+        event.setCreated(LocalDateTime.now());
+        return event;
+    }
+
+    /**
+     * Find the mastodon status which was bridged as the specified matrix event.
+     *
+     * @param eventId matrix event id.
+     * @return bridged event or {@code null} if the event isn't a bridged status.
+     */
+    public MxTootEvent findBridgedEvent(String eventId) {
+        MxTootEvent event = getEventIndex().get(eventId);
+        if (event != null) {
+            return event;
+        }
+
+        AtomicReference<MxTootEvent> stored = new AtomicReference<>();
+        getHolder().runInTransaction((holder, dao) -> {
+            stored.set(dao.findEvent(eventId));
         });
+        if (stored.get() != null) {
+            getEventIndex().put(stored.get());
+        }
+        return stored.get();
     }
 
     private Template mention() {
         MxTootConfig config = getHolder().getConfig();
         MxMastodonClient mastodonClient = getHolder().getData();
-        if (mastodonClient.getMentionTemplate() == null) {
-            mastodonClient.setMentionTemplate(compileTemplate(config.getMentionFormat()));
-        }
-        return mastodonClient.getMentionTemplate();
+        return mastodonClient.template(mastodonClient::getMentionTemplate, mastodonClient::setMentionTemplate, config::getMentionFormat);
     }
 
     private Template reblog() {
         MxTootConfig config = getHolder().getConfig();
         MxMastodonClient mastodonClient = getHolder().getData();
-        if (mastodonClient.getBoostTemplate() == null) {
-            mastodonClient.setBoostTemplate(compileTemplate(config.getBoostFormat()));
-        }
-        return mastodonClient.getBoostTemplate();
+        return mastodonClient.template(mastodonClient::getBoostTemplate, mastodonClient::setBoostTemplate, config::getBoostFormat);
     }
 
     private Template favourite() {
         MxTootConfig config = getHolder().getConfig();
         MxMastodonClient mastodonClient = getHolder().getData();
-        if (mastodonClient.getFavouriteTemplate() == null) {
-            mastodonClient.setFavouriteTemplate(compileTemplate(config.getFavouriteFormat()));
-        }
-        return mastodonClient.getFavouriteTemplate();
+        return mastodonClient.template(mastodonClient::getFavouriteTemplate, mastodonClient::setFavouriteTemplate,
+            config::getFavouriteFormat);
     }
 
     private Template follow() {
         MxTootConfig config = getHolder().getConfig();
         MxMastodonClient mastodonClient = getHolder().getData();
-        if (mastodonClient.getFollowTemplate() == null) {
-            mastodonClient.setFollowTemplate(compileTemplate(config.getFollowFormat()));
-        }
-        return mastodonClient.getFollowTemplate();
+        return mastodonClient.template(mastodonClient::getFollowTemplate, mastodonClient::setFollowTemplate, config::getFollowFormat);
     }
 
     /**
-     * Retrieve formatted message of the status.
+     * Retrieve formatted message of the status. Waits for the attachments' uploads, so it shouldn't be invoked in the stream's thread.
      *
      * @param status status.
      * @return formatted message of the status.
      */
     public String writeStatus(Status status) {
+        uploadMedia(status, statusFormat(status)).join();
+        return timedRender(status);
+    }
+
+    protected String timedRender(Status status) {
+        try (Timer.Context renderTime = getInstance().getMetrics().render().time()) {
+            return renderStatus(status);
+        }
+    }
+
+    protected String renderStatus(Status status) {
         MxTootConfig config = getHolder().getConfig();
         MxMastodonClient mastodonClient = getHolder().getData();
         Template template;
         if (status.getReblog() != null) {
-            if (mastodonClient.getBoostTemplate() == null) {
-                mastodonClient.setBoostTemplate(compileTemplate(config.getBoostFormat()));
-            }
-            template = mastodonClient.getBoostTemplate();
+            template = mastodonClient.template(mastodonClient::getBoostTemplate, mastodonClient::setBoostTemplate, config::getBoostFormat);
         } else if (status.getInReplyToId() != null) {
-            if (mastodonClient.getReplyTemplate() == null) {
-                mastodonClient.setReplyTemplate(compileTemplate(config.getReplyFormat()));
-            }
-            template = mastodonClient.getReplyTemplate();
+            template = mastodonClient.template(mastodonClient::getReplyTemplate, mastodonClient::setReplyTemplate, config::getReplyFormat);
         } else {
-            if (mastodonClient.getPostTemplate() == null) {
-                mastodonClient.setPostTemplate(compileTemplate(config.getPostFormat()));
-            }
-            template = mastodonClient.getPostTemplate();
+            template = mastodonClient.template(mastodonClient::getPostTemplate, mastodonClient::setPostTemplate, config::getPostFormat);
         }
 
         Map<String, Object> statusMap = mastodonClient.statusToMap(status, true);
@@ -341,6 +789,44 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         }
     }
 
+    /**
+     * Compile the template once. Statuses are rendered concurrently (the stream, commands), the template is compiled under
+     * the client's lock, so the template reset by the {@code format} command isn't overwritten by the old one.
+     *
+     * @param getter current template.
+     * @param setter template's setter.
+     * @param format template's source.
+     * @return compiled template.
+     */
+    protected Template template(Supplier<Template> getter, Consumer<Template> setter, Supplier<String> format) {
+        Template template = getter.get();
+        if (template != null) {
+            return template;
+        }
+        synchronized (this) {
+            template = getter.get();
+            if (template == null) {
+                template = compileTemplate(format.get());
+                setter.accept(template);
+            }
+            return template;
+        }
+    }
+
+    protected DateTimeFormatter dateTimeFormatter() {
+        DateTimeFormatter formatter = dateTimeFormatter;
+        if (formatter != null) {
+            return formatter;
+        }
+        synchronized (this) {
+            if (dateTimeFormatter == null) {
+                MxTootConfig config = getHolder().getConfig();
+                dateTimeFormatter = DateTimeFormatter.ofPattern(config.getDateTimeFormat(), new Locale(config.getDateTimeLocale()));
+            }
+            return dateTimeFormatter;
+        }
+    }
+
     /**
      * Compile template.
      *
@@ -362,13 +848,9 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         if (status.getReblog() != null && parseReblog) {
             map.put("reblog", statusToMap(status.getReblog(), false));
         }
-        map.put("content", status.getContent());
-        if (getDateTimeFormatter() == null) {
-            MxTootConfig config = getHolder().getConfig();
-            setDateTimeFormatter(DateTimeFormatter.ofPattern(config.getDateTimeFormat(), new Locale(config.getDateTimeLocale())));
-        }
+        map.put("content", renderEmojis(status));
         LocalDateTime createdAt = LocalDateTime.parse(status.getCreatedAt(), DateTimeFormatter.ISO_DATE_TIME);
-        map.put("created_at", createdAt.format(getDateTimeFormatter()));
+        map.put("created_at", createdAt.format(dateTimeFormatter()));
         map.put("emojis", status.getEmojis().stream().filter(Objects::nonNull).map(this::emojiToMap).collect(Collectors.toList()));
         map.put("reblogs_count", status.getReblogsCount());
         map.put("favourites_count", status.getFavouritesCount());
@@ -385,6 +867,20 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         return map;
     }
 
+    /**
+     * Replace custom emojis in the content with the images uploaded to the homeserver.
+     *
+     * @param status status.
+     * @return the content with the inline emojis or the origin content if media bridging is disabled.
+     */
+    protected String renderEmojis(Status status) {
+        MediaCache mediaCache = MediaCache.get();
+        if (mediaCache == null) {
+            return status.getContent();
+        }
+        return getInstance().getEmojis().render(status.getContent(), status.getEmojis(), mediaCache);
+    }
+
     protected Map<String, Object> accountToMap(Account account) {
         Map<String, Object> map = new HashMap<>();
         map.put("id", account.getId());
@@ -408,6 +904,10 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         map.put("shortcode", emoji.getShortcode());
         map.put("static_url", emoji.getStaticUrl());
         map.put("url", emoji.getUrl());
+        MediaCache mediaCache = MediaCache.get();
+        if (mediaCache != null) {
+            map.put("mxc_url", mediaCache.lookup(emoji.getUrl()));
+        }
         return map;
     }
 
@@ -419,6 +919,10 @@ public class MxMastodonClient implements Handler, Supplier<Void> {
         map.put("remote_url", attachment.getRemoteUrl());
         map.put("preview_url", attachment.getPreviewUrl());
         map.put("text_url", attachment.getTextUrl());
+        MediaCache mediaCache = MediaCache.get();
+        if (mediaCache != null) {
+            map.put("mxc_url", mediaCache.lookup(attachment.getUrl()));
+        }
         return map;
     }
 
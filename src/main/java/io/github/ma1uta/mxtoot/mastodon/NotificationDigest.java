@@ -0,0 +1,192 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.sys1yagi.mastodon4j.api.entity.Notification;
+import io.github.ma1uta.mxtoot.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Accumulates low-priority notifications (favourites, boosts, follows) and writes them as one summary
+ * per interval or when too many notifications are accumulated.
+ */
+public class NotificationDigest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotificationDigest.class);
+
+    /**
+     * Default interval between summaries in minutes.
+     */
+    public static final int DEFAULT_INTERVAL = 30;
+
+    /**
+     * Count of the accumulated notifications which flushes the digest before the interval ends.
+     */
+    public static final int THRESHOLD = 50;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "notification-digest");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Consumer<String> writer;
+    private final Map<String, Group> groups = new LinkedHashMap<>();
+    private int count = 0;
+    private ScheduledFuture<?> task;
+
+    public NotificationDigest(Consumer<String> writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Check that the notification can be accumulated.
+     *
+     * @param notification notification.
+     * @return {@code true} if the notification has low priority.
+     */
+    public static boolean accepts(Notification notification) {
+        switch (notification.getType()) {
+            case "favourite":
+            case "reblog":
+            case "follow":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Start periodic summaries.
+     *
+     * @param interval interval in minutes.
+     */
+    public synchronized void start(int interval) {
+        if (task != null) {
+            task.cancel(false);
+        }
+        int minutes = Math.max(interval, 1);
+        task = SCHEDULER.scheduleAtFixedRate(() -> CompletableFuture.runAsync(this::flush, Threads.tasks()), minutes, minutes,
+            TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stop periodic summaries and write accumulated notifications.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (task != null) {
+                task.cancel(false);
+                task = null;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Accumulate the notification.
+     *
+     * @param notification favourite, boost or follow notification.
+     */
+    public void add(Notification notification) {
+        boolean full;
+        synchronized (this) {
+            String type = notification.getType();
+            Long statusId = notification.getStatus() != null ? notification.getStatus().getId() : null;
+            String url = notification.getStatus() != null ? notification.getStatus().getUrl() : null;
+            groups.computeIfAbsent(type + ":" + statusId, key -> new Group(type, statusId, url)).accounts
+                .add(notification.getAccount().getAcct());
+            count++;
+            full = count >= THRESHOLD;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Write the summary of the accumulated notifications.
+     */
+    public void flush() {
+        List<Group> flushed;
+        synchronized (this) {
+            if (groups.isEmpty()) {
+                return;
+            }
+            flushed = new ArrayList<>(groups.values());
+            groups.clear();
+            count = 0;
+        }
+
+        StringBuilder summary = new StringBuilder();
+        for (Group group : flushed) {
+            if (summary.length() > 0) {
+                summary.append("<br/>");
+            }
+            summary.append(group.summary());
+        }
+        try {
+            writer.accept(summary.toString());
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to write digest", e);
+        }
+    }
+
+    /**
+     * Notifications of the one type about the one status.
+     */
+    private static class Group {
+
+        private final String type;
+        private final Long statusId;
+        private final String url;
+        private final Set<String> accounts = new LinkedHashSet<>();
+
+        Group(String type, Long statusId, String url) {
+            this.type = type;
+            this.statusId = statusId;
+            this.url = url;
+        }
+
+        String summary() {
+            String people = accounts.size() == 1 ? "1 person" : accounts.size() + " people";
+            String names = String.join(", ", accounts);
+            switch (type) {
+                case "favourite":
+                    return String.format("%s favourited status %d <a href=\"%s\">%s</a>: %s", people, statusId, url, url, names);
+                case "reblog":
+                    return String.format("%s boosted status %d <a href=\"%s\">%s</a>: %s", people, statusId, url, url, names);
+                default:
+                    return String.format("%s followed you: %s", people, names);
+            }
+        }
+    }
+}
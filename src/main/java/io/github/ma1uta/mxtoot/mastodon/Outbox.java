@@ -0,0 +1,478 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.codahale.metrics.Timer;
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import io.github.ma1uta.mxtoot.Threads;
+import io.github.ma1uta.mxtoot.journal.Journal;
+import io.github.ma1uta.mxtoot.matrix.MatrixSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.ws.rs.WebApplicationException;
+
+/**
+ * Durable outbound queue of the bot's matrix messages.
+ * <br>
+ * Rendered messages are appended to the {@link Journal} of the bot and the room and then sent in order. The checkpoint
+ * moves after the homeserver has accepted the message, so the messages survive the restart and the homeserver outage.
+ * Each room sends at most one message per {@link #SEND_INTERVAL}, failed sends are retried with the backoff. The matrix
+ * transaction id of the message is derived from the journal position, so the retry of the message which the homeserver has
+ * accepted returns the same event instead of the duplicate. The messages which the homeserver rejects permanently (4xx
+ * except 429, for example, the bot has left the room) are dropped.
+ * <br>
+ * Each room's journal directory keeps the room id, so the rooms are known after the restart even if the homeserver is
+ * unavailable. The journal of the room which has no pending messages for {@link #IDLE_TIMEOUT} releases its mapped segments,
+ * so the bots in many quiet rooms don't hold a segment per room.
+ * <br>
+ * The outbox is disabled until the directory is set with {@link #init(String)}.
+ */
+public class Outbox implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Outbox.class);
+
+    /**
+     * Min interval between the messages of the one room.
+     */
+    public static final long SEND_INTERVAL = 200L;
+
+    /**
+     * Timeout before the first retry.
+     */
+    private static final long RETRYING_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Max timeout between the retries.
+     */
+    private static final long MAX_RETRYING_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * The room without the pending messages releases the segments of its journal after this timeout.
+     */
+    public static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * File with the room id and the creation time of the journal.
+     */
+    private static final String ROOM_FILE = "room";
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mxtoot-outbox");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static volatile Path directory;
+
+    private final MxMastodonClient client;
+    private final Path botDirectory;
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public Outbox(MxMastodonClient client, Path botDirectory) {
+        this.client = client;
+        this.botDirectory = botDirectory;
+    }
+
+    /**
+     * Enable the outbox.
+     *
+     * @param journalDirectory directory of the journals or {@code null} to send messages directly.
+     */
+    public static void init(String journalDirectory) {
+        directory = journalDirectory != null && !journalDirectory.trim().isEmpty() ? Paths.get(journalDirectory, "outbound") : null;
+    }
+
+    /**
+     * Open the outbox of the bot and resume sending the pending messages.
+     *
+     * @param client bot's mastodon client.
+     * @return the outbox or {@code null} if the outbox is disabled.
+     */
+    public static Outbox forBot(MxMastodonClient client) {
+        Path dir = directory;
+        if (dir == null) {
+            return null;
+        }
+        Outbox outbox = new Outbox(client, dir.resolve(fileName(client.getHolder().getConfig().getUserId())));
+        outbox.resume();
+        return outbox;
+    }
+
+    /**
+     * Append the message to the journal of the room and send it.
+     *
+     * @param roomId  room id.
+     * @param message formatted message.
+     * @param status  the status of the message or {@code null}.
+     * @throws IOException when cannot write the message.
+     */
+    public void send(String roomId, String message, Status status) throws IOException {
+        Room room = room(roomId);
+        room.active = System.currentTimeMillis();
+        room.journal.append(encode(new Pending(roomId, message, status)));
+        room.drain();
+    }
+
+    /**
+     * Rooms which have the journal (the rooms known before the homeserver has become unavailable, including the previous runs).
+     *
+     * @return room ids.
+     */
+    public List<String> knownRooms() {
+        return new ArrayList<>(rooms.keySet());
+    }
+
+    /**
+     * Open the journals of all known rooms and send the pending messages.
+     */
+    protected void resume() {
+        if (!Files.isDirectory(botDirectory)) {
+            return;
+        }
+        List<Path> journals;
+        try (Stream<Path> files = Files.list(botDirectory)) {
+            journals = files.filter(Files::isDirectory).collect(Collectors.toList());
+        } catch (IOException e) {
+            LOGGER.error("Cannot list the journals of the " + botDirectory, e);
+            return;
+        }
+        for (Path path : journals) {
+            try {
+                Journal journal = new Journal(path);
+                String roomId = null;
+                long created = 0L;
+                Path roomFile = path.resolve(ROOM_FILE);
+                if (Files.exists(roomFile)) {
+                    List<String> lines = Files.readAllLines(roomFile, StandardCharsets.UTF_8);
+                    roomId = lines.isEmpty() ? null : lines.get(0);
+                    created = lines.size() > 1 ? Long.parseLong(lines.get(1)) : 0L;
+                } else {
+                    Journal.Record record = journal.peek();
+                    if (record != null) {
+                        roomId = decode(record.getPayload()).roomId;
+                        writeRoomFile(path, roomId, created);
+                    }
+                }
+                if (roomId == null) {
+                    journal.close();
+                    continue;
+                }
+                Room room = new Room(roomId, journal, created);
+                rooms.put(room.roomId, room);
+                if (journal.isEmpty()) {
+                    journal.release();
+                } else {
+                    room.drain();
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Cannot open the journal " + path, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        rooms.values().forEach(room -> room.journal.close());
+        rooms.clear();
+    }
+
+    private Room room(String roomId) throws IOException {
+        Room room = rooms.get(roomId);
+        if (room == null) {
+            synchronized (rooms) {
+                room = rooms.get(roomId);
+                if (room == null) {
+                    Path path = botDirectory.resolve(fileName(roomId));
+                    long created = System.currentTimeMillis();
+                    Journal journal = new Journal(path);
+                    writeRoomFile(path, roomId, created);
+                    room = new Room(roomId, journal, created);
+                    rooms.put(roomId, room);
+                }
+            }
+        }
+        return room;
+    }
+
+    private static void writeRoomFile(Path path, String roomId, long created) throws IOException {
+        Files.write(path.resolve(ROOM_FILE), Arrays.asList(roomId, Long.toString(created)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check that the message will be rejected again.
+     *
+     * @param error send failure.
+     * @return {@code true} if the homeserver has rejected the message permanently.
+     */
+    protected boolean isPermanent(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MatrixSender.ResponseException) {
+                return ((MatrixSender.ResponseException) cause).isPermanent();
+            }
+            if (cause instanceof WebApplicationException && ((WebApplicationException) cause).getResponse() != null) {
+                return MatrixSender.ResponseException.isPermanent(((WebApplicationException) cause).getResponse().getStatus());
+            }
+        }
+        return false;
+    }
+
+    private static String fileName(String id) {
+        return id.replaceAll("[^\\w.-]", "_");
+    }
+
+    protected byte[] encode(Pending pending) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeUTF(pending.roomId);
+            writeString(output, pending.message);
+            output.writeBoolean(pending.statusId != null);
+            if (pending.statusId != null) {
+                output.writeLong(pending.statusId);
+                writeString(output, pending.visibility);
+                writeString(output, pending.account);
+                writeString(output, pending.createdAt);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    protected Pending decode(byte[] payload) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload))) {
+            Pending pending = new Pending(input.readUTF(), readString(input), null);
+            if (input.readBoolean()) {
+                pending.statusId = input.readLong();
+                pending.visibility = readString(input);
+                pending.account = readString(input);
+                pending.createdAt = readString(input);
+            }
+            return pending;
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        output.writeInt(value != null ? bytes.length : -1);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Journal and the sending state of the one room.
+     */
+    private class Room {
+
+        private final String roomId;
+        private final Journal journal;
+        private final long created;
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+        private final AtomicBoolean releasing = new AtomicBoolean(false);
+        private volatile long backoff = RETRYING_TIMEOUT;
+        private volatile long active = System.currentTimeMillis();
+
+        Room(String roomId, Journal journal, long created) {
+            this.roomId = roomId;
+            this.journal = journal;
+            this.created = created;
+        }
+
+        void drain() {
+            if (!closed && draining.compareAndSet(false, true)) {
+                Threads.tasks().submit(this::step);
+            }
+        }
+
+        /**
+         * Send the first pending message and schedule the next step.
+         */
+        void step() {
+            try {
+                if (closed) {
+                    draining.set(false);
+                    return;
+                }
+                Journal.Record record = journal.peek();
+                if (record == null) {
+                    draining.set(false);
+                    if (!journal.isEmpty()) {
+                        drain();
+                    } else {
+                        idle();
+                    }
+                    return;
+                }
+                Pending pending = decode(record.getPayload());
+                pending.txnId = "mxtoot-" + created + "-" + record.getPosition();
+                client.deliver(roomId, pending).whenComplete((delivered, e) -> {
+                    boolean permanent = e != null && isPermanent(e);
+                    if (permanent) {
+                        LOGGER.error("The homeserver has rejected the message to the " + roomId + ", drop it", e);
+                    }
+                    if (e == null && delivered || permanent) {
+                        try {
+                            journal.ack(record);
+                        } catch (IOException ackError) {
+                            LOGGER.error("Cannot move the checkpoint of the " + roomId, ackError);
+                        }
+                        backoff = RETRYING_TIMEOUT;
+                        schedule(SEND_INTERVAL);
+                    } else {
+                        if (e != null) {
+                            LOGGER.error("Failed write a message", e);
+                        }
+                        LOGGER.warn("Retry to send the messages to the {} in {} ms", roomId, backoff);
+                        schedule(backoff);
+                        backoff = Math.min(backoff * 2, MAX_RETRYING_TIMEOUT);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Cannot read the journal of the " + roomId, e);
+                schedule(backoff);
+            }
+        }
+
+        private void schedule(long delay) {
+            SCHEDULER.schedule(() -> Threads.tasks().submit(this::step), delay, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Schedule the release of the journal's segments after the last message has been sent.
+         */
+        private void idle() {
+            active = System.currentTimeMillis();
+            if (releasing.compareAndSet(false, true)) {
+                SCHEDULER.schedule(() -> Threads.tasks().submit(this::release), IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Release the segments if the room has been idle for {@link #IDLE_TIMEOUT}. A new message maps the segment again.
+         */
+        private void release() {
+            long idle = System.currentTimeMillis() - active;
+            if (!closed && idle < IDLE_TIMEOUT) {
+                SCHEDULER.schedule(() -> Threads.tasks().submit(this::release), IDLE_TIMEOUT - idle, TimeUnit.MILLISECONDS);
+                return;
+            }
+            releasing.set(false);
+            if (!closed && !draining.get()) {
+                journal.release();
+            }
+        }
+    }
+
+    /**
+     * Message waiting for the delivery.
+     */
+    public static class Pending {
+
+        private final String roomId;
+        private final String message;
+        private Long statusId;
+        private String visibility;
+        private String account;
+        private String createdAt;
+        private String txnId;
+        private final long queued = System.nanoTime();
+
+        Pending(String roomId, String message, Status status) {
+            this.roomId = roomId;
+            this.message = message;
+            if (status != null) {
+                Status origin = status.getReblog() != null ? status.getReblog() : status;
+                this.statusId = origin.getId();
+                this.visibility = origin.getVisibility();
+                this.account = origin.getAccount().getAcct();
+                this.createdAt = status.getCreatedAt();
+            }
+        }
+
+        public String getRoomId() {
+            return roomId;
+        }
+
+        /**
+         * When the message was queued (or read from the journal after the restart).
+         *
+         * @return {@link System#nanoTime()} of the enqueue.
+         */
+        public long getQueued() {
+            return queued;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public Long getStatusId() {
+            return statusId;
+        }
+
+        public String getVisibility() {
+            return visibility;
+        }
+
+        public String getAccount() {
+            return account;
+        }
+
+        public String getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * Matrix transaction id of the message from the journal.
+         *
+         * @return the transaction id or {@code null} to generate the new one.
+         */
+        public String getTxnId() {
+            return txnId;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the paging cursors (max_id of the page) for the account lists (followers, following).
+ * <br>
+ * Cursors expire after the short time because lists change.
+ */
+public class PageCursors {
+
+    /**
+     * Default time to live of the cursor.
+     */
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    private final long ttl;
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+
+    public PageCursors() {
+        this(DEFAULT_TTL);
+    }
+
+    public PageCursors(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Find the cursor of the page.
+     *
+     * @param list      list name (followers, following).
+     * @param accountId account id.
+     * @param page      page number.
+     * @return max_id of the page or {@code null} if it isn't cached or expired.
+     */
+    public Long get(String list, long accountId, long page) {
+        String key = key(list, accountId, page);
+        Cursor cursor = cursors.get(key);
+        if (cursor == null) {
+            return null;
+        }
+        if (cursor.expiredAt < System.currentTimeMillis()) {
+            cursors.remove(key, cursor);
+            return null;
+        }
+        return cursor.maxId;
+    }
+
+    /**
+     * Save the cursor of the page.
+     *
+     * @param list      list name (followers, following).
+     * @param accountId account id.
+     * @param page      page number.
+     * @param maxId     max_id of the page.
+     */
+    public void put(String list, long accountId, long page, long maxId) {
+        long now = System.currentTimeMillis();
+        cursors.values().removeIf(cursor -> cursor.expiredAt < now);
+        cursors.put(key(list, accountId, page), new Cursor(maxId, now + ttl));
+    }
+
+    private String key(String list, long accountId, long page) {
+        return list + ":" + accountId + ":" + page;
+    }
+
+    private static class Cursor {
+
+        private final long maxId;
+        private final long expiredAt;
+
+        Cursor(long maxId, long expiredAt) {
+            this.maxId = maxId;
+            this.expiredAt = expiredAt;
+        }
+    }
+}
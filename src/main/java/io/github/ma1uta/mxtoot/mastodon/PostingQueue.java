@@ -0,0 +1,255 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.mxtoot.Threads;
+import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
+import io.github.ma1uta.mxtoot.matrix.MxTootDao;
+import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
+import okhttp3.FormBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outbound queue of the bot's toots, boosts and favourites.
+ * <br>
+ * Postings are sent asynchronously, at most {@link #MAX_CONCURRENT} at once. Failed postings are retried with
+ * the exponential backoff, each posting keeps its {@code Idempotency-Key} header between attempts, so the retry never
+ * posts twice. The user receives one notice when the posting has been sent or has failed.
+ */
+public class PostingQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PostingQueue.class);
+
+    /**
+     * Max count of the postings sent at once.
+     */
+    public static final int MAX_CONCURRENT = 2;
+
+    /**
+     * Max count of the attempts.
+     */
+    public static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * Timeout before the first retry.
+     */
+    private static final long RETRYING_TIMEOUT = 1000;
+
+    /**
+     * Too Many Requests.
+     */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * First server error code.
+     */
+    private static final int SERVER_ERROR = 500;
+
+    private static final ScheduledExecutorService RETRIES = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mxtoot-posting-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder;
+    private final OkHttpClient http = HttpClients.requests().build();
+    private final Queue<Posting> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
+    public PostingQueue(Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder) {
+        this.holder = holder;
+    }
+
+    /**
+     * Enqueue the posting.
+     *
+     * @param roomId      room to send the notice.
+     * @param description what is posted (used in the notice).
+     * @param path        api method, for example {@code statuses} or {@code statuses/1/reblog}.
+     * @param form        form builder, invoked once before the first attempt.
+     */
+    public void submit(String roomId, String description, String path, Form form) {
+        queue.add(new Posting(roomId, description, path, form));
+        drain();
+    }
+
+    /**
+     * Enqueue the posting without parameters.
+     *
+     * @param roomId      room to send the notice.
+     * @param description what is posted (used in the notice).
+     * @param path        api method.
+     */
+    public void submit(String roomId, String description, String path) {
+        submit(roomId, description, path, Collections::emptyMap);
+    }
+
+    /**
+     * Count of the postings waiting to be sent.
+     *
+     * @return queue size.
+     */
+    public int size() {
+        return queue.size() + inFlight.get();
+    }
+
+    private void drain() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= MAX_CONCURRENT) {
+                return;
+            }
+            if (!inFlight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Posting posting = queue.poll();
+            if (posting == null) {
+                inFlight.decrementAndGet();
+                if (queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            Threads.tasks().submit(() -> send(posting));
+        }
+    }
+
+    private void send(Posting posting) {
+        try {
+            attempt(posting);
+        } finally {
+            inFlight.decrementAndGet();
+            drain();
+        }
+    }
+
+    private void attempt(Posting posting) {
+        posting.attempts++;
+        String error;
+        try {
+            if (posting.params == null) {
+                posting.params = posting.form.build();
+            }
+            FormBody.Builder body = new FormBody.Builder();
+            posting.params.forEach((name, value) -> {
+                if (value instanceof Collection) {
+                    ((Collection<?>) value).forEach(item -> body.add(name, item.toString()));
+                } else if (value != null) {
+                    body.add(name, value.toString());
+                }
+            });
+            MxTootConfig config = holder.getConfig();
+            Request request = new Request.Builder()
+                .url("https://" + config.getMastodonServer() + "/api/v1/" + posting.path)
+                .header("Authorization", "Bearer " + config.getMastodonAccessToken())
+                .header("Idempotency-Key", posting.idempotencyKey)
+                .post(body.build())
+                .build();
+            try (Response response = http.newCall(request).execute()) {
+                if (response.isSuccessful()) {
+                    notice(posting.roomId, "Sent " + posting.description);
+                    return;
+                }
+                error = response.code() + " " + response.message();
+                if (response.code() != TOO_MANY_REQUESTS && response.code() < SERVER_ERROR) {
+                    fail(posting, error);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Cannot send " + posting.description, e);
+            error = e.getMessage();
+        } catch (Exception e) {
+            fail(posting, e.getMessage());
+            return;
+        }
+
+        if (posting.attempts >= MAX_ATTEMPTS) {
+            fail(posting, error);
+            return;
+        }
+        long timeout = RETRYING_TIMEOUT << (posting.attempts - 1);
+        LOGGER.warn("Retry to send {} in {} ms: {}", posting.description, timeout, error);
+        RETRIES.schedule(() -> {
+            queue.add(posting);
+            drain();
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void fail(Posting posting, String error) {
+        LOGGER.error("Cannot send {}: {}", posting.description, error);
+        notice(posting.roomId, "Cannot send " + posting.description + ": " + error);
+    }
+
+    private void notice(String roomId, String message) {
+        try {
+            holder.getMatrixClient().event().sendNotice(roomId, message);
+        } catch (RuntimeException e) {
+            LOGGER.error("Cannot send notice", e);
+        }
+    }
+
+    /**
+     * Builder of the form parameters, may call the mastodon api (to find the origin status).
+     */
+    @FunctionalInterface
+    public interface Form {
+
+        /**
+         * Build the parameters.
+         *
+         * @return form parameters, a collection value is sent as the repeated parameter ({@code media_ids[]}).
+         * @throws Exception when cannot build the parameters.
+         */
+        Map<String, ?> build() throws Exception;
+    }
+
+    private static class Posting {
+
+        private final String roomId;
+        private final String description;
+        private final String path;
+        private final Form form;
+        private final String idempotencyKey = UUID.randomUUID().toString();
+        private Map<String, ?> params;
+        private int attempts = 0;
+
+        Posting(String roomId, String description, String path, Form form) {
+            this.roomId = roomId;
+            this.description = description;
+            this.path = path;
+            this.form = form;
+        }
+    }
+}
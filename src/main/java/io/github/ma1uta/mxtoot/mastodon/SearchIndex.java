@@ -0,0 +1,268 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import org.jsoup.Jsoup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Local inverted index of the streamed statuses.
+ * <br>
+ * Statuses older than the retention period are dropped, their postings are compacted lazily.
+ */
+public class SearchIndex {
+
+    /**
+     * Default retention period in hours.
+     */
+    public static final int DEFAULT_RETENTION = 72;
+
+    /**
+     * Max count of the indexed statuses.
+     */
+    public static final int MAX_DOCUMENTS = 10000;
+
+    /**
+     * Max length of the stored snippet.
+     */
+    private static final int SNIPPET_LENGTH = 200;
+
+    private static final int INITIAL_POSTINGS = 4;
+
+    private static final Pattern DELIMITER = Pattern.compile("[^\\p{L}\\p{N}_#@]+");
+
+    private final long retention;
+    private final Map<Long, Document> documents = new LinkedHashMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private int removed = 0;
+
+    public SearchIndex(int retentionHours) {
+        this.retention = TimeUnit.HOURS.toMillis(retentionHours);
+    }
+
+    /**
+     * Index the status.
+     *
+     * @param status streamed status.
+     */
+    public synchronized void add(Status status) {
+        Status origin = status.getReblog() != null ? status.getReblog() : status;
+        String text = Jsoup.parse(origin.getContent() != null ? origin.getContent() : "").text();
+        if (origin.getSpoilerText() != null && !origin.getSpoilerText().isEmpty()) {
+            text = origin.getSpoilerText() + " " + text;
+        }
+
+        List<String> terms = tokenize(text + " " + origin.getAccount().getAcct());
+        if (terms.isEmpty() || documents.containsKey(status.getId())) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        expire(now, MAX_DOCUMENTS - 1);
+
+        String snippet = text.length() > SNIPPET_LENGTH ? text.substring(0, SNIPPET_LENGTH) + "..." : text;
+        documents.put(status.getId(), new Document(status.getId(), now, terms.size(), origin.getAccount().getAcct(), snippet,
+            origin.getUrl()));
+        for (String term : terms) {
+            postings.computeIfAbsent(term, key -> new Postings()).add(status.getId());
+        }
+    }
+
+    /**
+     * Remove the deleted status.
+     *
+     * @param statusId status id.
+     */
+    public synchronized void remove(long statusId) {
+        if (documents.remove(statusId) != null) {
+            removed++;
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Find the statuses.
+     *
+     * @param query search query.
+     * @param limit max count of the results.
+     * @return found statuses from the most relevant.
+     */
+    public synchronized List<Document> search(String query, int limit) {
+        expire(System.currentTimeMillis(), MAX_DOCUMENTS);
+
+        Map<Long, Double> scores = new HashMap<>();
+        for (String term : tokenize(query)) {
+            Postings termPostings = postings.get(term);
+            if (termPostings == null) {
+                continue;
+            }
+            Map<Long, Integer> frequencies = new HashMap<>();
+            for (int i = 0; i < termPostings.size; i++) {
+                long statusId = termPostings.ids[i];
+                if (documents.containsKey(statusId)) {
+                    frequencies.merge(statusId, 1, Integer::sum);
+                }
+            }
+            if (frequencies.isEmpty()) {
+                continue;
+            }
+            double idf = Math.log(1.0 + (double) documents.size() / frequencies.size());
+            frequencies.forEach((statusId, frequency) -> {
+                double tf = (1.0 + Math.log(frequency)) / Math.sqrt(documents.get(statusId).getLength());
+                scores.merge(statusId, tf * idf, Double::sum);
+            });
+        }
+
+        List<Map.Entry<Long, Double>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort((left, right) -> {
+            int byScore = Double.compare(right.getValue(), left.getValue());
+            return byScore != 0 ? byScore : Long.compare(right.getKey(), left.getKey());
+        });
+
+        List<Document> result = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            result.add(documents.get(ranked.get(i).getKey()));
+        }
+        return result;
+    }
+
+    protected List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        for (String token : DELIMITER.split(text.toLowerCase(Locale.ROOT))) {
+            if (token.length() > 1) {
+                terms.add(token);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Drop the statuses older than the retention period and the oldest statuses over the limit.
+     *
+     * @param now   current time.
+     * @param limit max count of the statuses to keep.
+     */
+    private void expire(long now, int limit) {
+        Iterator<Document> iterator = documents.values().iterator();
+        while (iterator.hasNext()) {
+            Document document = iterator.next();
+            if (document.indexed + retention >= now && documents.size() <= limit) {
+                break;
+            }
+            iterator.remove();
+            removed++;
+        }
+        compactIfNeeded();
+    }
+
+    private void compactIfNeeded() {
+        if (removed <= documents.size()) {
+            return;
+        }
+        Iterator<Postings> iterator = postings.values().iterator();
+        while (iterator.hasNext()) {
+            Postings termPostings = iterator.next();
+            termPostings.retain(documents);
+            if (termPostings.size == 0) {
+                iterator.remove();
+            }
+        }
+        removed = 0;
+    }
+
+    /**
+     * Status ids which contain the term, the id is repeated for the each occurrence.
+     */
+    private static class Postings {
+
+        private long[] ids = new long[INITIAL_POSTINGS];
+        private int size = 0;
+
+        void add(long statusId) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = statusId;
+        }
+
+        void retain(Map<Long, Document> documents) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (documents.containsKey(ids[i])) {
+                    ids[kept++] = ids[i];
+                }
+            }
+            size = kept;
+            if (size < ids.length / 2) {
+                ids = Arrays.copyOf(ids, Math.max(size, INITIAL_POSTINGS));
+            }
+        }
+    }
+
+    /**
+     * Indexed status.
+     */
+    public static class Document {
+
+        private final long statusId;
+        private final long indexed;
+        private final int length;
+        private final String acct;
+        private final String snippet;
+        private final String url;
+
+        Document(long statusId, long indexed, int length, String acct, String snippet, String url) {
+            this.statusId = statusId;
+            this.indexed = indexed;
+            this.length = length;
+            this.acct = acct;
+            this.snippet = snippet;
+            this.url = url;
+        }
+
+        public long getStatusId() {
+            return statusId;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public String getAcct() {
+            return acct;
+        }
+
+        public String getSnippet() {
+            return snippet;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+    }
+}
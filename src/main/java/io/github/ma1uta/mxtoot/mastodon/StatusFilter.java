@@ -0,0 +1,174 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import org.jsoup.Jsoup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * Compiled filter rules which hide unwanted statuses before they are rendered.
+ * <br>
+ * One rule per line:
+ * <ul>
+ * <li>{@code boosts} - hide boosts.</li>
+ * <li>{@code replies} - hide replies.</li>
+ * <li>{@code word <keyword>} - hide statuses with the keyword.</li>
+ * <li>{@code regex <pattern>} - hide statuses which text (without the html markup) matches the regular expression.</li>
+ * <li>{@code language <code>[,<code>]} - show only statuses in the specified languages.</li>
+ * <li>{@code visibility <visibility>[,<visibility>]} - hide statuses with the specified visibility.</li>
+ * <li>{@code account <acct>} - hide statuses of the account.</li>
+ * </ul>
+ */
+public class StatusFilter {
+
+    /**
+     * Filter which accepts all statuses.
+     */
+    public static final StatusFilter EMPTY = new StatusFilter(Collections.emptyList());
+
+    private final List<String> rules;
+    private boolean hideBoosts = false;
+    private boolean hideReplies = false;
+    private final Set<String> languages = new HashSet<>();
+    private final Set<String> visibilities = new HashSet<>();
+    private final Set<String> accounts = new HashSet<>();
+    private final KeywordMatcher keywords;
+    private final Pattern regex;
+
+    protected StatusFilter(List<String> rules) {
+        this.rules = rules;
+        List<String> words = new ArrayList<>();
+        List<String> patterns = new ArrayList<>();
+        for (String rule : rules) {
+            String[] parts = rule.trim().split("\\s+", 2);
+            String argument = parts.length > 1 ? parts[1].trim() : "";
+            switch (parts[0].toLowerCase(Locale.ROOT)) {
+                case "boosts":
+                    hideBoosts = true;
+                    break;
+                case "replies":
+                    hideReplies = true;
+                    break;
+                case "word":
+                    words.add(argument);
+                    break;
+                case "regex":
+                    patterns.add("(?:" + argument + ")");
+                    break;
+                case "language":
+                    languages.addAll(list(argument));
+                    break;
+                case "visibility":
+                    visibilities.addAll(list(argument));
+                    break;
+                case "account":
+                    accounts.addAll(list(argument.startsWith("@") ? argument.substring(1) : argument));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown rule: " + rule);
+            }
+        }
+        this.keywords = words.isEmpty() ? null : new KeywordMatcher(words);
+        this.regex = patterns.isEmpty() ? null : Pattern.compile(String.join("|", patterns), Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Compile the rules.
+     *
+     * @param rules rules, one per line.
+     * @return compiled filter.
+     * @throws IllegalArgumentException if the rule is unknown or the regular expression is invalid.
+     */
+    public static StatusFilter compile(String rules) {
+        if (rules == null || rules.trim().isEmpty()) {
+            return EMPTY;
+        }
+        List<String> lines = Arrays.stream(rules.split("\n")).map(String::trim).filter(line -> !line.isEmpty())
+            .collect(Collectors.toList());
+        try {
+            return new StatusFilter(lines);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Wrong regular expression: " + e.getMessage(), e);
+        }
+    }
+
+    public List<String> getRules() {
+        return rules;
+    }
+
+    /**
+     * Check that the status should be written.
+     *
+     * @param status   status.
+     * @param language language of the status or {@code null} if unknown.
+     * @return {@code true} if the status passes the filter.
+     */
+    public boolean accept(Status status, String language) {
+        if (this == EMPTY) {
+            return true;
+        }
+        Status origin = status.getReblog() != null ? status.getReblog() : status;
+        if (hideBoosts && status.getReblog() != null || hideReplies && origin.getInReplyToId() != null) {
+            return false;
+        }
+        if (!visibilities.isEmpty() && visibilities.contains(origin.getVisibility())) {
+            return false;
+        }
+        if (!accounts.isEmpty() && (hidden(status) || hidden(origin))) {
+            return false;
+        }
+        if (!languages.isEmpty() && language != null && !languages.contains(language.toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+        if (keywords == null && regex == null) {
+            return true;
+        }
+        String text = text(origin.getContent());
+        if (keywords != null && (keywords.matches(text) || keywords.matches(origin.getSpoilerText()))) {
+            return false;
+        }
+        return regex == null || !(find(text) || find(origin.getSpoilerText()));
+    }
+
+    private boolean hidden(Status status) {
+        return status.getAccount() != null && accounts.contains(status.getAccount().getAcct().toLowerCase(Locale.ROOT));
+    }
+
+    private String text(String content) {
+        return content != null ? Jsoup.parse(content).text() : null;
+    }
+
+    private boolean find(String text) {
+        return text != null && regex.matcher(text).find();
+    }
+
+    private List<String> list(String argument) {
+        return Arrays.stream(argument.split("[,\\s]+")).map(item -> item.trim().toLowerCase(Locale.ROOT))
+            .filter(item -> !item.isEmpty()).collect(Collectors.toList());
+    }
+}
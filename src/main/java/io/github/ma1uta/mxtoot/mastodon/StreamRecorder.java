@@ -0,0 +1,151 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only recorder of the raw streaming events.
+ * <br>
+ * Each frame is: timestamp (8 bytes, millis), event type (1 byte, see {@link #eventCode(String)}),
+ * payload length (4 bytes) and the UTF-8 payload. Frames are flushed one by one so the file survives crashes.
+ * <br>
+ * Recording is disabled until the directory is set with {@link #init(String)}, each bot writes its own file.
+ */
+public class StreamRecorder implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamRecorder.class);
+
+    /**
+     * Unknown event.
+     */
+    static final byte OTHER = 0;
+
+    /**
+     * New status.
+     */
+    static final byte UPDATE = 1;
+
+    /**
+     * New notification.
+     */
+    static final byte NOTIFICATION = 2;
+
+    /**
+     * Deleted status.
+     */
+    static final byte DELETE = 3;
+
+    private static volatile Path directory;
+
+    private final DataOutputStream output;
+
+    public StreamRecorder(Path file) throws IOException {
+        this.output = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)));
+    }
+
+    /**
+     * Enable recording.
+     *
+     * @param recordDirectory directory of the records or {@code null} to disable recording.
+     */
+    public static void init(String recordDirectory) {
+        directory = recordDirectory != null && !recordDirectory.trim().isEmpty() ? Paths.get(recordDirectory) : null;
+    }
+
+    /**
+     * Open the recorder of the bot.
+     *
+     * @param userId bot's user id.
+     * @return the recorder or {@code null} if recording is disabled or failed.
+     */
+    public static StreamRecorder forBot(String userId) {
+        Path dir = directory;
+        if (dir == null) {
+            return null;
+        }
+        try {
+            Files.createDirectories(dir);
+            return new StreamRecorder(dir.resolve(userId.replaceAll("[^\\w.-]", "_") + ".sse"));
+        } catch (IOException e) {
+            LOGGER.error("Cannot open the record of the " + userId, e);
+            return null;
+        }
+    }
+
+    /**
+     * Write the event.
+     *
+     * @param event event type.
+     * @param json  event payload.
+     */
+    public synchronized void record(String event, String json) {
+        try {
+            byte[] payload = json.getBytes(StandardCharsets.UTF_8);
+            output.writeLong(System.currentTimeMillis());
+            output.writeByte(eventCode(event));
+            output.writeInt(payload.length);
+            output.write(payload);
+            output.flush();
+        } catch (IOException e) {
+            LOGGER.error("Cannot record the event", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        output.close();
+    }
+
+    static byte eventCode(String event) {
+        switch (event) {
+            case "update":
+                return UPDATE;
+            case "notification":
+                return NOTIFICATION;
+            case "delete":
+                return DELETE;
+            default:
+                return OTHER;
+        }
+    }
+
+    static String eventName(byte code) {
+        switch (code) {
+            case UPDATE:
+                return "update";
+            case NOTIFICATION:
+                return "notification";
+            case DELETE:
+                return "delete";
+            default:
+                return "unknown";
+        }
+    }
+}
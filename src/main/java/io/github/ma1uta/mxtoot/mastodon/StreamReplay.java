@@ -0,0 +1,137 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.sys1yagi.mastodon4j.MastodonClient;
+import com.sys1yagi.mastodon4j.api.Handler;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Replays the events recorded by the {@link StreamRecorder}.
+ */
+public class StreamReplay implements Closeable {
+
+    private final DataInputStream input;
+    private final double speed;
+    private long firstRecorded = -1;
+    private long firstReplayed;
+
+    /**
+     * Open the record.
+     *
+     * @param file  record.
+     * @param speed replay speed: 1 is the original speed, 10 is 10 times faster, 0 is without pauses.
+     * @throws IOException when cannot open the record.
+     */
+    public StreamReplay(Path file, double speed) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        this.speed = speed;
+    }
+
+    /**
+     * Read the next frame, waiting until its time comes.
+     *
+     * @return the frame or {@code null} at the end of the record.
+     * @throws IOException          when the record is broken.
+     * @throws InterruptedException when the replay is interrupted.
+     */
+    public Frame next() throws IOException, InterruptedException {
+        long recorded;
+        try {
+            recorded = input.readLong();
+        } catch (EOFException e) {
+            return null;
+        }
+        String event = StreamRecorder.eventName(input.readByte());
+        byte[] payload = new byte[input.readInt()];
+        input.readFully(payload);
+
+        long now = System.currentTimeMillis();
+        if (firstRecorded < 0) {
+            firstRecorded = recorded;
+            firstReplayed = now;
+        } else if (speed > 0) {
+            long wait = firstReplayed + (long) ((recorded - firstRecorded) / speed) - now;
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+        return new Frame(recorded, event, new String(payload, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Feed the whole record to the handler.
+     *
+     * @param client  mastodon client to parse the events.
+     * @param handler handler.
+     * @return count of the replayed events.
+     * @throws IOException          when the record is broken.
+     * @throws InterruptedException when the replay is interrupted.
+     */
+    public long replay(MastodonClient client, Handler handler) throws IOException, InterruptedException {
+        Streaming streaming = new Streaming(client, false, response -> {
+        });
+        long count = 0;
+        Frame frame;
+        while ((frame = next()) != null) {
+            streaming.dispatch(handler, frame.getEvent(), "data: " + frame.getPayload());
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Recorded event.
+     */
+    public static class Frame {
+
+        private final long timestamp;
+        private final String event;
+        private final String payload;
+
+        Frame(long timestamp, String event, String payload) {
+            this.timestamp = timestamp;
+            this.event = event;
+            this.payload = payload;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getEvent() {
+            return event;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+    }
+}
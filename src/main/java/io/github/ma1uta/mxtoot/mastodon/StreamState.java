@@ -0,0 +1,163 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streaming state of the one bot.
+ * <br>
+ * Fields are written only by the streaming thread and read without locks, so polling the state doesn't block the stream.
+ */
+public class StreamState {
+
+    /**
+     * Connection phase.
+     */
+    public enum Phase {
+        /**
+         * Streaming isn't started or has been stopped.
+         */
+        STOPPED,
+
+        /**
+         * Connecting to the mastodon.
+         */
+        CONNECTING,
+
+        /**
+         * Connected and reading events.
+         */
+        CONNECTED,
+
+        /**
+         * Connection has failed, waiting before the next attempt.
+         */
+        RETRYING
+    }
+
+    private volatile Phase phase = Phase.STOPPED;
+    private volatile long since = System.currentTimeMillis();
+    private volatile long lastEvent = 0L;
+    private volatile long backoff = 0L;
+    private volatile String lastError;
+    private final AtomicLong reconnects = new AtomicLong();
+
+    /**
+     * Connection is opening.
+     */
+    public void connecting() {
+        if (phase == Phase.RETRYING) {
+            reconnects.incrementAndGet();
+        }
+        phase(Phase.CONNECTING);
+    }
+
+    /**
+     * Connection has been opened.
+     */
+    public void connected() {
+        backoff = 0L;
+        phase(Phase.CONNECTED);
+    }
+
+    /**
+     * Event has been received.
+     */
+    public void event() {
+        lastEvent = System.currentTimeMillis();
+    }
+
+    /**
+     * Heartbeat (the comment line) has been received, the connection is alive.
+     */
+    public void heartbeat() {
+        lastEvent = System.currentTimeMillis();
+    }
+
+    /**
+     * Connection has failed.
+     *
+     * @param error   failure reason.
+     * @param backoff time to wait before the next attempt in milliseconds.
+     */
+    public void retrying(String error, long backoff) {
+        this.lastError = error;
+        this.backoff = backoff;
+        if (phase != Phase.RETRYING) {
+            phase(Phase.RETRYING);
+        }
+    }
+
+    /**
+     * Streaming has been stopped.
+     */
+    public void stopped() {
+        backoff = 0L;
+        phase(Phase.STOPPED);
+    }
+
+    private void phase(Phase phase) {
+        this.phase = phase;
+        this.since = System.currentTimeMillis();
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Time when the current phase has started.
+     *
+     * @return time in milliseconds.
+     */
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * Time of the last received event or heartbeat.
+     *
+     * @return time in milliseconds or 0 if there were no events.
+     */
+    public long getLastEvent() {
+        return lastEvent;
+    }
+
+    /**
+     * Current delay before the next connection attempt.
+     *
+     * @return delay in milliseconds.
+     */
+    public long getBackoff() {
+        return backoff;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s since %d, last event %d, backoff %d ms, reconnects %d%s", phase, since, lastEvent, backoff,
+            reconnects.get(), lastError != null ? ", last error: " + lastError : "");
+    }
+}
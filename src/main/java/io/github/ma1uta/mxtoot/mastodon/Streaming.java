@@ -16,13 +16,16 @@
 
 package io.github.ma1uta.mxtoot.mastodon;
 
+import com.codahale.metrics.Timer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.sys1yagi.mastodon4j.MastodonClient;
-import com.sys1yagi.mastodon4j.api.Dispatcher;
 import com.sys1yagi.mastodon4j.api.Handler;
-import com.sys1yagi.mastodon4j.api.Shutdownable;
 import com.sys1yagi.mastodon4j.api.entity.Notification;
 import com.sys1yagi.mastodon4j.api.entity.Status;
 import com.sys1yagi.mastodon4j.api.exception.Mastodon4jRequestException;
+import io.github.ma1uta.mxtoot.Threads;
 import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +34,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 /**
@@ -45,88 +50,259 @@ public class Streaming {
      */
     private static final long RETRYING_TIMEOUT = 5 * 1000;
 
+    /**
+     * Max timeout to wait between the connection attempts.
+     */
+    private static final long MAX_RETRYING_TIMEOUT = 5 * 60 * 1000;
+
     private final MastodonClient client;
     private final boolean retryable;
     private final Consumer<Response> errorHandler;
+    private final BridgeMetrics metrics;
+    private final StreamState state;
+    private StreamRecorder recorder;
+    private Runnable connectListener;
 
     public Streaming(MastodonClient client, boolean retryable, Consumer<Response> errorHandler) {
+        this(client, retryable, errorHandler, null, new StreamState());
+    }
+
+    public Streaming(MastodonClient client, boolean retryable, Consumer<Response> errorHandler, BridgeMetrics metrics,
+                     StreamState state) {
         this.client = client;
         this.retryable = retryable;
         this.errorHandler = errorHandler;
+        this.metrics = metrics;
+        this.state = state;
+    }
+
+    /**
+     * Record the raw events.
+     *
+     * @param recorder recorder or {@code null} to disable recording.
+     * @return this streaming.
+     */
+    public Streaming recorder(StreamRecorder recorder) {
+        this.recorder = recorder;
+        return this;
+    }
+
+    /**
+     * Listen the (re)connections, the events between the connections are lost.
+     *
+     * @param listener listener which is invoked each time the stream has connected or {@code null}.
+     * @return this streaming.
+     */
+    public Streaming onConnect(Runnable listener) {
+        this.connectListener = listener;
+        return this;
     }
 
     /**
      * Fetch user timeline.
+     * <br>
+     * The stream is read in the {@link Threads#streams()} executor (a platform or a virtual thread).
      *
      * @param handler handler.
-     * @return dispatcher which used to stop streaming.
+     * @return handle which used to stop streaming.
      */
-    public Shutdownable user(Handler handler) {
-        Dispatcher dispatcher = new Dispatcher();
-        dispatcher.invokeLater(() -> {
-            while (true) {
+    public Handle user(Handler handler) {
+        Handle handle = new Handle();
+        handle.future = Threads.streams().submit(() -> {
+            long timeout = RETRYING_TIMEOUT;
+            while (!handle.stopped) {
                 try {
+                    state.connecting();
                     Response response = client.get("streaming/user", null);
+                    handle.response = response;
                     if (!response.isSuccessful()) {
                         errorHandler.accept(response);
                         throw new Mastodon4jRequestException(response);
                     }
+                    state.connected();
+                    timeout = RETRYING_TIMEOUT;
+                    if (connectListener != null) {
+                        connectListener.run();
+                    }
 
                     try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.body().byteStream()))) {
-                        try {
-                            String line = reader.readLine();
-                            if (line == null || line.isEmpty()) {
-                                continue;
-                            }
-                            String type = line.split(":")[0].trim();
-                            if (!"event".equals(type)) {
-                                continue;
-                            }
-                            String event = line.split(":")[1].trim();
-                            String payload = reader.readLine();
-                            String payloadType = payload.split(":")[0].trim();
-                            if (!"data".equals(payloadType)) {
-                                continue;
-                            }
-
-                            int start = payload.indexOf(":") + 1;
-                            String json = payload.substring(start).trim();
-                            switch (event) {
-                                case "update":
-                                    Status status = client.getSerializer().fromJson(json, Status.class);
-                                    handler.onStatus(status);
-                                    break;
-                                case "notification":
-                                    Notification notification = client.getSerializer().fromJson(json, Notification.class);
-                                    handler.onNotification(notification);
-                                    break;
-                                case "delete":
-                                    Long id = client.getSerializer().fromJson(json, Long.class);
-                                    handler.onDelete(id);
-                                    break;
-                                default:
-                                    LOGGER.warn("Unknown event: " + event);
-                            }
-                        } catch (InterruptedIOException e) {
-                            break;
+                        read(reader, handler);
+                    } catch (InterruptedIOException e) {
+                        if (e instanceof SocketTimeoutException && !handle.stopped) {
+                            throw e;
                         }
+                        state.stopped();
+                        break;
+                    }
+                    throw new IOException("Stream closed by the server");
+                } catch (IOException | Mastodon4jRequestException | RuntimeException e) {
+                    if (handle.stopped) {
+                        state.stopped();
+                        break;
                     }
-                } catch (IOException | Mastodon4jRequestException e) {
                     LOGGER.error("Cannot read line from streaming.", e);
                     if (!retryable) {
                         LOGGER.error("exit.");
+                        state.stopped();
                         break;
                     }
                     LOGGER.error("retry.");
+                    state.retrying(e.getMessage(), timeout);
                     try {
-                        Thread.sleep(RETRYING_TIMEOUT);
+                        Thread.sleep(timeout);
                     } catch (InterruptedException e1) {
                         LOGGER.warn("Try to stop streaming, exit");
+                        state.stopped();
+                        break;
                     }
+                    timeout = Math.min(timeout * 2, MAX_RETRYING_TIMEOUT);
                 }
             }
         });
 
-        return new Shutdownable(dispatcher);
+        return handle;
+    }
+
+    /**
+     * Read events until the end of the stream.
+     * <br>
+     * The event which cannot be parsed or handled is logged and skipped, the comment lines (heartbeats) mark the stream alive.
+     *
+     * @param reader  server-sent events.
+     * @param handler handler.
+     * @throws IOException when cannot read the stream.
+     */
+    protected void read(BufferedReader reader, Handler handler) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith(":")) {
+                state.heartbeat();
+                continue;
+            }
+            String type = line.split(":")[0].trim();
+            if (!"event".equals(type)) {
+                continue;
+            }
+            String event = line.split(":")[1].trim();
+            String payload = reader.readLine();
+            if (payload == null) {
+                break;
+            }
+            String payloadType = payload.split(":")[0].trim();
+            if (!"data".equals(payloadType)) {
+                continue;
+            }
+
+            state.event();
+            if (recorder != null) {
+                recorder.record(event, payload.substring(payload.indexOf(":") + 1).trim());
+            }
+            try {
+                dispatch(handler, event, payload);
+            } catch (RuntimeException e) {
+                LOGGER.error("Cannot handle the event " + event + ", skip it", e);
+            }
+        }
+    }
+
+    protected void dispatch(Handler handler, String event, String payload) {
+        Timer.Context parseTime = metrics != null ? metrics.parse().time() : null;
+        int start = payload.indexOf(":") + 1;
+        String json = payload.substring(start).trim();
+        switch (event) {
+            case "update":
+                JsonObject object = new JsonParser().parse(json).getAsJsonObject();
+                Status status = client.getSerializer().fromJson(object, Status.class);
+                stop(parseTime);
+                if (handler instanceof LanguageHandler) {
+                    ((LanguageHandler) handler).onStatus(status, language(object));
+                } else {
+                    handler.onStatus(status);
+                }
+                break;
+            case "notification":
+                Notification notification = client.getSerializer().fromJson(json, Notification.class);
+                stop(parseTime);
+                handler.onNotification(notification);
+                break;
+            case "delete":
+                Long id = client.getSerializer().fromJson(json, Long.class);
+                stop(parseTime);
+                handler.onDelete(id);
+                break;
+            default:
+                LOGGER.warn("Unknown event: " + event);
+        }
+    }
+
+    private void stop(Timer.Context parseTime) {
+        if (parseTime != null) {
+            parseTime.stop();
+            metrics.events().mark();
+        }
+    }
+
+    /**
+     * Find the language of the status (mastodon4j's {@link Status} doesn't map this field). The boost has the language of the
+     * boosted status.
+     *
+     * @param status parsed status.
+     * @return the language or {@code null} if unknown.
+     */
+    protected String language(JsonObject status) {
+        JsonElement reblog = status.get("reblog");
+        if (reblog != null && reblog.isJsonObject()) {
+            String language = language(reblog.getAsJsonObject());
+            if (language != null) {
+                return language;
+            }
+        }
+        JsonElement language = status.get("language");
+        return language != null && language.isJsonPrimitive() ? language.getAsString() : null;
+    }
+
+    /**
+     * Handler which receives the language of the streamed status.
+     */
+    public interface LanguageHandler extends Handler {
+
+        /**
+         * Handle the streamed status.
+         *
+         * @param status   status.
+         * @param language language of the status or {@code null} if unknown.
+         */
+        void onStatus(Status status, String language);
+    }
+
+    /**
+     * Handle of the running stream.
+     */
+    public static class Handle {
+
+        private volatile boolean stopped = false;
+        private volatile Response response;
+        private volatile Future<?> future;
+
+        /**
+         * Stop streaming: close the connection to unblock the reader and interrupt it.
+         */
+        public void shutdown() {
+            stopped = true;
+            Response current = response;
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Cannot close the stream", e);
+                }
+            }
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
     }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import com.sys1yagi.mastodon4j.api.entity.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring buffer of the last streamed statuses of the home timeline.
+ * <br>
+ * The newest status overwrites the oldest one when the buffer is full. The buffer is cleared when the stream (re)connects
+ * or stops, so it holds only the statuses without gaps between them.
+ */
+public class TimelineBuffer {
+
+    /**
+     * Default count of the statuses to keep.
+     */
+    public static final int DEFAULT_CAPACITY = 200;
+
+    private final Status[] statuses;
+    private int head = 0;
+    private int size = 0;
+
+    public TimelineBuffer(int capacity) {
+        this.statuses = new Status[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Add a new status.
+     *
+     * @param status streamed status.
+     */
+    public synchronized void add(Status status) {
+        statuses[head] = status;
+        head = (head + 1) % statuses.length;
+        if (size < statuses.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Remove the deleted status.
+     *
+     * @param statusId status id.
+     */
+    public synchronized void remove(long statusId) {
+        List<Status> kept = new ArrayList<>(size);
+        for (int i = size; i > 0; i--) {
+            Status status = statuses[index(i)];
+            if (status.getId() != statusId) {
+                kept.add(status);
+            }
+        }
+        if (kept.size() != size) {
+            clear();
+            kept.forEach(this::add);
+        }
+    }
+
+    /**
+     * Remove all statuses.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Retrieve the last statuses.
+     *
+     * @param count count of the statuses.
+     * @return the last statuses from the newest to the oldest.
+     */
+    public synchronized List<Status> latest(int count) {
+        int limit = Math.max(0, Math.min(count, size));
+        List<Status> result = new ArrayList<>(limit);
+        for (int i = 1; i <= limit; i++) {
+            result.add(statuses[index(i)]);
+        }
+        return result;
+    }
+
+    /**
+     * Find the status by id.
+     *
+     * @param statusId status id.
+     * @return the status or {@code null} if the status isn't in the buffer.
+     */
+    public synchronized Status find(long statusId) {
+        for (int i = 1; i <= size; i++) {
+            Status status = statuses[index(i)];
+            if (status.getId() == statusId) {
+                return status;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Index of the n-th status from the newest one.
+     *
+     * @param offset offset from the head (1 is the newest).
+     * @return index in the array.
+     */
+    private int index(int offset) {
+        return (head - offset + statuses.length) % statuses.length;
+    }
+}
@@ -21,13 +21,16 @@ import io.github.ma1uta.matrix.ErrorResponse;
 import io.github.ma1uta.matrix.application.api.ApplicationApi;
 import io.github.ma1uta.matrix.application.model.TransactionRequest;
 import io.github.ma1uta.matrix.exception.MatrixException;
+import io.github.ma1uta.mxtoot.Threads;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
-import java.util.Optional;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.container.AsyncResponse;
@@ -47,6 +50,7 @@ public class AppResource implements ApplicationApi {
     private final MxTootPersistentService<MxTootTransactionDao> transactionService;
     private final String hsToken;
     private final String url;
+    private volatile Inbox inbox;
 
     public AppResource(MxTootTransactionDao mxTootTransactionDao, MxTootBotPool mxTootBotPool, String hsToken,
                        String url, MxTootPersistentService<MxTootDao> botService,
@@ -83,19 +87,71 @@ public class AppResource implements ApplicationApi {
         return transactionService;
     }
 
+    public Inbox getInbox() {
+        return inbox;
+    }
+
+    /**
+     * Acknowledge the transactions after they have been written to the journal.
+     *
+     * @param inbox inbound journal or {@code null} to process the transactions before the acknowledgement.
+     */
+    public void setInbox(Inbox inbox) {
+        this.inbox = inbox;
+    }
+
     @Override
     public void transaction(String txnId, TransactionRequest request, HttpServletRequest servletRequest,
                             AsyncResponse asyncResponse) {
         LOGGER.debug("Receive transaction {}", txnId);
         validateAsToken(servletRequest);
 
-        CompletableFuture.runAsync(() -> {
-            if (!getTransactionService().invoke(dao -> {
-                return dao.exist(txnId);
-            })) {
-                Optional<Boolean> result = request.getEvents().stream().map(event -> getMxTootBotPool().send(event.getRoomId(), event))
-                    .filter(Boolean::booleanValue).findAny();
-                if (result.isPresent() && result.get()) {
+        Inbox currentInbox = getInbox();
+        if (currentInbox != null) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    currentInbox.append(txnId, request);
+                    asyncResponse.resume(Response.ok(new EmptyResponse()));
+                } catch (IOException e) {
+                    LOGGER.error("Cannot write the transaction " + txnId + " to the journal, process it directly", e);
+                    respondAfterProcessing(txnId, request, asyncResponse);
+                }
+            }, Threads.tasks());
+            return;
+        }
+
+        respondAfterProcessing(txnId, request, asyncResponse);
+    }
+
+    private void respondAfterProcessing(String txnId, TransactionRequest request, AsyncResponse asyncResponse) {
+        process(txnId, request).whenComplete((ignored, e) -> {
+            if (e != null) {
+                LOGGER.error("Cannot process the transaction " + txnId, e);
+            }
+            asyncResponse.resume(Response.ok(new EmptyResponse()));
+        });
+    }
+
+    /**
+     * Process the events of the transaction and mark the transaction as processed.
+     * <br>
+     * The transaction which has been already processed is skipped.
+     *
+     * @param txnId   transaction id.
+     * @param request transaction.
+     * @return the future which completes when all events have been processed.
+     */
+    public CompletableFuture<Void> process(String txnId, TransactionRequest request) {
+        return CompletableFuture.supplyAsync(() -> getTransactionService().invoke(dao -> {
+            return dao.exist(txnId);
+        }), Threads.tasks()).thenCompose(exist -> {
+            if (exist) {
+                return CompletableFuture.completedFuture(null);
+            }
+            List<CompletableFuture<Boolean>> results = request.getEvents().stream()
+                .map(event -> getMxTootBotPool().sendAsync(event.getRoomId(), event)).collect(Collectors.toList());
+            return CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).thenAcceptAsync(ignored -> {
+                if (results.stream().anyMatch(CompletableFuture::join)) {
                     getTransactionService().invoke((dao) -> {
                         MxTootTransaction transaction = new MxTootTransaction();
                         transaction.setId(txnId);
@@ -105,8 +161,7 @@ public class AppResource implements ApplicationApi {
                 } else {
                     LOGGER.warn("Bot not found");
                 }
-            }
-            asyncResponse.resume(Response.ok(new EmptyResponse()));
+            }, Threads.tasks());
         });
     }
 
@@ -128,7 +183,7 @@ public class AppResource implements ApplicationApi {
                 getMxTootBotPool().startNewBot(userId);
                 asyncResponse.resume(Response.ok(new EmptyResponse()));
             }
-        });
+        }, Threads.tasks());
     }
 
     protected void validateAsToken(HttpServletRequest servletRequest) {
@@ -0,0 +1,180 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import io.github.ma1uta.matrix.Event;
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+import io.github.ma1uta.mxtoot.mastodon.PostingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns matrix replies and reactions to the bridged statuses into the mastodon replies, boosts and favourites.
+ */
+public class BridgedEventHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BridgedEventHandler.class);
+
+    private static final String ROOM_MESSAGE = "m.room.message";
+
+    private static final String REACTION = "m.reaction";
+
+    private static final String BOOST_REACTION = "🔁";
+
+    /**
+     * Reactions which favourite the status, other reactions are ignored.
+     */
+    private static final Set<String> FAVOURITE_REACTIONS = new HashSet<>(Arrays.asList("⭐", "❤", "👍"));
+
+    private static final String VARIATION_SELECTOR = "\uFE0F";
+
+    private static final Pattern REPLY_LINK = Pattern.compile("https://matrix\\.to/#/[^/\"]+/([^\"?]+)");
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Find the event id which the specified event relates to (reply or reaction).
+     *
+     * @param event matrix event.
+     * @return related event id or {@code null} if the event isn't a reply or a reaction.
+     */
+    @SuppressWarnings("unchecked")
+    public String relatedEventId(Event event) {
+        if (event.getContent() == null || !(ROOM_MESSAGE.equals(event.getType()) || REACTION.equals(event.getType()))) {
+            return null;
+        }
+
+        Map<String, Object> content = mapper.convertValue(event.getContent(), Map.class);
+        Object relatesTo = content.get("m.relates_to");
+        if (relatesTo instanceof Map) {
+            Map<String, Object> relation = (Map<String, Object>) relatesTo;
+            Object inReplyTo = relation.get("m.in_reply_to");
+            if (inReplyTo instanceof Map && ((Map<String, Object>) inReplyTo).get("event_id") != null) {
+                return ((Map<String, Object>) inReplyTo).get("event_id").toString();
+            }
+            if (relation.get("event_id") != null) {
+                return relation.get("event_id").toString();
+            }
+        }
+
+        Object formattedBody = content.get("formatted_body");
+        if (formattedBody != null && formattedBody.toString().contains("<mx-reply>")) {
+            Matcher matcher = REPLY_LINK.matcher(formattedBody.toString());
+            if (matcher.find()) {
+                try {
+                    return URLDecoder.decode(matcher.group(1), StandardCharsets.UTF_8.name());
+                } catch (UnsupportedEncodingException e) {
+                    LOGGER.error("Cannot decode event id", e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Handle the reply or the reaction to the bridged status.
+     *
+     * @param holder  bot's holder.
+     * @param roomId  room id.
+     * @param event   matrix event.
+     * @param bridged bridged status.
+     */
+    @SuppressWarnings("unchecked")
+    public void handle(Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder, String roomId,
+                       Event event, MxTootEvent bridged) {
+        MxTootConfig config = holder.getConfig();
+        PostingQueue postingQueue = holder.getData().getPostingQueue();
+        Map<String, Object> content = mapper.convertValue(event.getContent(), Map.class);
+        long statusId = bridged.getStatusId();
+
+        if (REACTION.equals(event.getType())) {
+            Object relatesTo = content.get("m.relates_to");
+            Object key = relatesTo instanceof Map ? ((Map<String, Object>) relatesTo).get("key") : null;
+            String reaction = key != null ? key.toString().replace(VARIATION_SELECTOR, "") : "";
+            if (BOOST_REACTION.equals(reaction)) {
+                postingQueue.submit(roomId, "boost of " + statusId, "statuses/" + statusId + "/reblog");
+            } else if (FAVOURITE_REACTIONS.contains(reaction)) {
+                postingQueue.submit(roomId, "favourite of " + statusId, "statuses/" + statusId + "/favourite");
+            }
+            return;
+        }
+
+        Object body = content.get("body");
+        String text = stripFallback(body != null ? body.toString() : "");
+        String prefix = config.getPrefix() != null ? config.getPrefix() : "";
+        if ((prefix + "boost").equals(text)) {
+            postingQueue.submit(roomId, "boost of " + statusId, "statuses/" + statusId + "/reblog");
+        } else if ((prefix + "fav").equals(text)) {
+            postingQueue.submit(roomId, "favourite of " + statusId, "statuses/" + statusId + "/favourite");
+        } else if (!text.isEmpty()) {
+            String mention = "@" + bridged.getAccount();
+            Map<String, String> form = new HashMap<>();
+            form.put("status", text.startsWith(mention) ? text : mention + " " + text);
+            form.put("in_reply_to_id", Long.toString(statusId));
+            Status.Visibility visibility = visibilityByString(bridged.getVisibility());
+            if (visibility != null) {
+                form.put("visibility", visibility.getValue());
+            }
+            postingQueue.submit(roomId, "reply to " + statusId, "statuses", () -> form);
+        }
+    }
+
+    /**
+     * Remove the quotation of the origin message from the reply's body.
+     *
+     * @param body reply's body.
+     * @return reply's text.
+     */
+    protected String stripFallback(String body) {
+        String[] lines = body.split("\n", -1);
+        int index = 0;
+        while (index < lines.length && lines[index].startsWith(">")) {
+            index++;
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = index; i < lines.length; i++) {
+            if (text.length() > 0) {
+                text.append("\n");
+            }
+            text.append(lines[i]);
+        }
+        return text.toString().trim();
+    }
+
+    protected Status.Visibility visibilityByString(String visibility) {
+        for (Status.Visibility item : Status.Visibility.values()) {
+            if (item.getValue().equals(visibility)) {
+                return item;
+            }
+        }
+        return null;
+    }
+}
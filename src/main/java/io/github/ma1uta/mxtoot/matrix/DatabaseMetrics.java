@@ -0,0 +1,69 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Gauges of the hibernate statistics: database queries and hit ratios of the second-level and query caches.
+ * <br>
+ * Metric names are {@code mxtoot.db.<name>}, they are exposed on the admin port.
+ */
+public final class DatabaseMetrics {
+
+    private DatabaseMetrics() {
+    }
+
+    /**
+     * Enable the statistics and register the gauges.
+     *
+     * @param registry       metric registry.
+     * @param sessionFactory session factory.
+     */
+    public static void register(MetricRegistry registry, SessionFactory sessionFactory) {
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.setStatisticsEnabled(true);
+
+        registry.register(name("queries"), (Gauge<Long>) statistics::getQueryExecutionCount);
+        registry.register(name("statements"), (Gauge<Long>) statistics::getPrepareStatementCount);
+        registry.register(name("entities", "loaded"), (Gauge<Long>) statistics::getEntityLoadCount);
+        registry.register(name("l2", "hits"), (Gauge<Long>) statistics::getSecondLevelCacheHitCount);
+        registry.register(name("l2", "misses"), (Gauge<Long>) statistics::getSecondLevelCacheMissCount);
+        registry.register(name("l2", "ratio"), ratio(statistics::getSecondLevelCacheHitCount, statistics::getSecondLevelCacheMissCount));
+        registry.register(name("query_cache", "hits"), (Gauge<Long>) statistics::getQueryCacheHitCount);
+        registry.register(name("query_cache", "misses"), (Gauge<Long>) statistics::getQueryCacheMissCount);
+        registry.register(name("query_cache", "ratio"), ratio(statistics::getQueryCacheHitCount, statistics::getQueryCacheMissCount));
+    }
+
+    private static String name(String... names) {
+        return MetricRegistry.name("mxtoot", "db", names);
+    }
+
+    private static RatioGauge ratio(Gauge<Long> hits, Gauge<Long> misses) {
+        return new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                long hitCount = hits.getValue();
+                return Ratio.of(hitCount, hitCount + misses.getValue());
+            }
+        };
+    }
+}
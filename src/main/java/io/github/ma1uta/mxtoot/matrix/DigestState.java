@@ -0,0 +1,31 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix;
+
+/**
+ * States of the notification digest.
+ */
+public enum DigestState {
+    /**
+     * Accumulate favourites, boosts and follows and write them as periodic summaries.
+     */
+    ON,
+    /**
+     * Write each notification immediately.
+     */
+    OFF
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.lifecycle.Managed;
+import io.github.ma1uta.matrix.application.model.TransactionRequest;
+import io.github.ma1uta.mxtoot.Threads;
+import io.github.ma1uta.mxtoot.journal.Journal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Durable journal of the incoming appservice transactions.
+ * <br>
+ * Transactions are written to the {@link Journal}, forced to the disk and acknowledged to the homeserver, then the consumer passes
+ * them to the bots' lanes. The checkpoint moves in the order of the transactions after they have been processed, so
+ * the transactions which weren't processed before the crash are replayed on the start. The processed transactions
+ * are still recorded in the {@link MxTootTransaction} table which skips the duplicates.
+ */
+public class Inbox implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Inbox.class);
+
+    /**
+     * Max count of the transactions processed at once.
+     */
+    public static final int MAX_IN_FLIGHT = 64;
+
+    /**
+     * How long the consumer waits for the new transactions before checking the journal again.
+     */
+    private static final long POLL_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+
+    private final Path directory;
+    private final ObjectMapper mapper;
+    private final BiFunction<String, TransactionRequest, CompletableFuture<Void>> processor;
+    private final Deque<InFlight> inFlight = new ArrayDeque<>();
+    private final Set<String> inFlightIds = new HashSet<>();
+    private final Object signal = new Object();
+    private Journal journal;
+    private Future<?> consumer;
+    private volatile boolean running = false;
+
+    public Inbox(Path directory, ObjectMapper mapper, BiFunction<String, TransactionRequest, CompletableFuture<Void>> processor) {
+        this.directory = directory;
+        this.mapper = mapper;
+        this.processor = processor;
+    }
+
+    /**
+     * Write the transaction to the journal and force it to the disk, so the acknowledged transaction survives the power loss.
+     * <br>
+     * The concurrent transactions share the fsync (see {@link Journal#force()}).
+     *
+     * @param txnId   transaction id.
+     * @param request transaction.
+     * @throws IOException when cannot write the transaction.
+     */
+    public void append(String txnId, TransactionRequest request) throws IOException {
+        if (!running) {
+            throw new IOException("Inbox is stopped");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeUTF(txnId);
+            output.write(mapper.writeValueAsBytes(request));
+        }
+        journal.append(bytes.toByteArray());
+        journal.force();
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    @Override
+    public void start() throws IOException {
+        journal = new Journal(directory);
+        running = true;
+        consumer = Threads.streams().submit(this::consume);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        if (consumer != null) {
+            consumer.cancel(true);
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Read the transactions from the checkpoint (the unprocessed transactions after the restart) and dispatch them.
+     */
+    protected void consume() {
+        Journal.Record cursor = null;
+        while (running) {
+            try {
+                Journal.Record record = cursor == null ? journal.peek() : journal.next(cursor);
+                if (record == null || inFlightCount() >= MAX_IN_FLIGHT) {
+                    synchronized (signal) {
+                        signal.wait(POLL_TIMEOUT);
+                    }
+                    continue;
+                }
+                cursor = record;
+                dispatch(record);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Cannot read the inbound journal", e);
+            }
+        }
+    }
+
+    private void dispatch(Journal.Record record) throws IOException {
+        String txnId;
+        TransactionRequest request;
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(record.getPayload()))) {
+            txnId = input.readUTF();
+            request = mapper.readValue(input, TransactionRequest.class);
+        }
+
+        InFlight transaction = new InFlight(record, txnId);
+        boolean duplicate;
+        synchronized (inFlight) {
+            inFlight.add(transaction);
+            duplicate = !inFlightIds.add(txnId);
+        }
+        CompletableFuture<Void> result = duplicate ? CompletableFuture.completedFuture(null) : processor.apply(txnId, request);
+        result.whenComplete((ignored, e) -> {
+            if (e != null) {
+                LOGGER.error("Cannot process the transaction " + txnId, e);
+            }
+            transaction.done = true;
+            acknowledge();
+        });
+    }
+
+    /**
+     * Move the checkpoint over the processed transactions in the journal order.
+     */
+    private void acknowledge() {
+        synchronized (inFlight) {
+            try {
+                while (!inFlight.isEmpty() && inFlight.peekFirst().done) {
+                    InFlight transaction = inFlight.pollFirst();
+                    inFlightIds.remove(transaction.txnId);
+                    if (running) {
+                        journal.ack(transaction.record);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.error("Cannot move the checkpoint of the inbound journal", e);
+            }
+        }
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    private int inFlightCount() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * Transaction which is being processed.
+     */
+    private static class InFlight {
+
+        private final Journal.Record record;
+        private final String txnId;
+        private volatile boolean done = false;
+
+        InFlight(Journal.Record record, String txnId) {
+            this.record = record;
+            this.txnId = txnId;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix;
+
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Cached rooms which the bot has joined.
+ * <br>
+ * The bridged messages are sent to these rooms without a homeserver round-trip. The cache is updated by the bot's membership
+ * events and is reloaded in the background every {@link #REFRESH_INTERVAL}.
+ */
+public class JoinedRooms {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JoinedRooms.class);
+
+    /**
+     * How often to reload the joined rooms from the homeserver.
+     */
+    public static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * How soon to retry the failed reload.
+     */
+    public static final long RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Map<String, JoinedRooms> BOTS = new ConcurrentHashMap<>();
+
+    private final Supplier<CompletableFuture<List<String>>> loader;
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private volatile CompletableFuture<Void> loaded;
+    private volatile long refreshed = 0L;
+
+    public JoinedRooms(Supplier<CompletableFuture<List<String>>> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Retrieve the joined rooms of the bot.
+     *
+     * @param holder bot's holder.
+     * @return the joined rooms.
+     */
+    public static JoinedRooms of(Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder) {
+        return BOTS.computeIfAbsent(holder.getConfig().getUserId(),
+            userId -> new JoinedRooms(() -> holder.getMatrixClient().room().joinedRooms()));
+    }
+
+    /**
+     * Forget the rooms of the stopped bot.
+     *
+     * @param userId bot's user id.
+     */
+    public static void remove(String userId) {
+        BOTS.remove(userId);
+    }
+
+    /**
+     * Update the rooms of the bot by its membership event.
+     *
+     * @param userId     bot's user id (the state key of the event).
+     * @param roomId     room id.
+     * @param membership new membership.
+     */
+    public static void membership(String userId, String roomId, String membership) {
+        JoinedRooms joinedRooms = userId != null ? BOTS.get(userId) : null;
+        if (joinedRooms == null || roomId == null) {
+            return;
+        }
+        if ("join".equals(membership)) {
+            joinedRooms.rooms.add(roomId);
+        } else {
+            joinedRooms.rooms.remove(roomId);
+        }
+    }
+
+    /**
+     * Retrieve the cached rooms and start the background reload if the cache is stale.
+     *
+     * @return the joined rooms, empty until the first load completes.
+     */
+    public List<String> get() {
+        refresh();
+        return new ArrayList<>(rooms);
+    }
+
+    /**
+     * Check that the bot has joined the room.
+     *
+     * @param roomId room id.
+     * @return {@code true} if the bot is in the room.
+     */
+    public boolean contains(String roomId) {
+        refresh();
+        return rooms.contains(roomId);
+    }
+
+    /**
+     * Wait for the first load of the rooms. Shouldn't be invoked in the stream's thread.
+     *
+     * @return the joined rooms.
+     */
+    public List<String> load() {
+        refresh();
+        CompletableFuture<Void> current = loaded;
+        if (current != null) {
+            try {
+                current.join();
+            } catch (RuntimeException e) {
+                LOGGER.error("Cannot load the joined rooms", e);
+            }
+        }
+        return new ArrayList<>(rooms);
+    }
+
+    /**
+     * Reload the rooms in the background if the cache is stale.
+     */
+    protected void refresh() {
+        if (refreshed + REFRESH_INTERVAL > System.currentTimeMillis() || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture<Void> reload;
+        try {
+            reload = loader.get().thenAccept(this::replace);
+        } catch (RuntimeException e) {
+            reload = new CompletableFuture<>();
+            reload.completeExceptionally(e);
+        }
+        loaded = reload.whenComplete((result, e) -> {
+            if (e != null) {
+                LOGGER.error("Cannot reload the joined rooms", e);
+                refreshed = System.currentTimeMillis() - REFRESH_INTERVAL + RETRY_INTERVAL;
+            } else {
+                refreshed = System.currentTimeMillis();
+            }
+            refreshing.set(false);
+        });
+    }
+
+    private void replace(Collection<String> joined) {
+        rooms.retainAll(joined);
+        rooms.addAll(joined);
+    }
+}
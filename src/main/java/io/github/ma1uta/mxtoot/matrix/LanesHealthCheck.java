@@ -0,0 +1,45 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mxtoot.matrix;
+
+import com.codahale.metrics.health.HealthCheck;
+import io.github.ma1uta.mxtoot.Lanes;
+
+/**
+ * Health of the lanes' workers.
+ * <br>
+ * Unhealthy if too many workers still run the timed out tasks, so the other bots wait for the free worker.
+ */
+public class LanesHealthCheck extends HealthCheck {
+
+    private final Lanes lanes;
+    private final int maxStuck;
+
+    public LanesHealthCheck(Lanes lanes, int maxStuck) {
+        this.lanes = lanes;
+        this.maxStuck = maxStuck;
+    }
+
+    @Override
+    protected Result check() {
+        int stuck = lanes.stuck();
+        ResultBuilder builder = stuck < maxStuck ? Result.builder().healthy() : Result.builder().unhealthy()
+            .withMessage("%d worker(s) still run the timed out tasks", stuck);
+        return builder.withDetail("stuck", stuck).withDetail("lanes", lanes.size()).build();
+    }
+}
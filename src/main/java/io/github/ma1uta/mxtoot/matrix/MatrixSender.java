@@ -0,0 +1,322 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous client of the hot matrix paths: the bridged notices, redactions of the deleted statuses and read receipts of
+ * the handled replies and reactions.
+ * <br>
+ * Requests are sent on the OkHttp dispatcher with the connection reuse (and HTTP/2 if the https homeserver supports it),
+ * the result is returned as a future, so no thread waits for the homeserver. The count of the requests in flight
+ * is exposed as the {@code mxtoot.matrix.inflight} gauge.
+ */
+public class MatrixSender {
+
+    /**
+     * Default max count of the requests in flight.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    /**
+     * Count of the idle connections to keep.
+     */
+    private static final int IDLE_CONNECTIONS = 16;
+
+    /**
+     * How long to keep the idle connection.
+     */
+    private static final long KEEP_ALIVE = TimeUnit.MINUTES.toMillis(5);
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private static volatile MatrixSender instance;
+
+    private final HttpUrl homeserverUrl;
+    private final String asToken;
+    private final OkHttpClient client;
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final String txnPrefix = "mxtoot" + System.currentTimeMillis() + "-";
+    private final AtomicLong txnCounter = new AtomicLong();
+
+    public MatrixSender(String homeserverUrl, String asToken, int maxInFlight, boolean http2, boolean gzip) {
+        this.homeserverUrl = HttpUrl.parse(homeserverUrl);
+        if (this.homeserverUrl == null) {
+            throw new IllegalArgumentException("Wrong homeserver url: " + homeserverUrl);
+        }
+        this.asToken = asToken;
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxInFlight);
+        dispatcher.setMaxRequestsPerHost(maxInFlight);
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+            .dispatcher(dispatcher)
+            .connectionPool(new ConnectionPool(IDLE_CONNECTIONS, KEEP_ALIVE, TimeUnit.MILLISECONDS))
+            .protocols(http2 ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Collections.singletonList(Protocol.HTTP_1_1));
+        if (gzip) {
+            builder.addInterceptor(new GzipRequestInterceptor());
+        }
+        this.client = builder.build();
+    }
+
+    /**
+     * Create the sender and register the in-flight gauge. Should be invoked before the first bot starts.
+     *
+     * @param homeserverUrl homeserver url.
+     * @param asToken       application service token.
+     * @param maxInFlight   max count of the requests in flight.
+     * @param http2         {@code true} to use HTTP/2 if the homeserver supports it.
+     * @param gzip          {@code true} to compress the request bodies.
+     * @param registry      metric registry.
+     */
+    public static void init(String homeserverUrl, String asToken, int maxInFlight, boolean http2, boolean gzip,
+                            MetricRegistry registry) {
+        MatrixSender sender = new MatrixSender(homeserverUrl, asToken, maxInFlight, http2, gzip);
+        registry.remove(MetricRegistry.name("mxtoot", "matrix", "inflight"));
+        registry.register(MetricRegistry.name("mxtoot", "matrix", "inflight"), (Gauge<Integer>) sender::getInFlight);
+        instance = sender;
+    }
+
+    /**
+     * Retrieve the sender.
+     *
+     * @return the sender or {@code null} if it isn't initialized.
+     */
+    public static MatrixSender get() {
+        return instance;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Send the formatted notice.
+     *
+     * @param userId        bot's user id.
+     * @param roomId        room id.
+     * @param body          plain text.
+     * @param formattedBody html.
+     * @return the event id.
+     */
+    public CompletableFuture<String> sendFormattedNotice(String userId, String roomId, String body, String formattedBody) {
+        return sendFormattedNotice(userId, roomId, body, formattedBody, nextTxnId());
+    }
+
+    /**
+     * Send the formatted notice with the specified transaction id.
+     * <br>
+     * The homeserver returns the same event for the repeated transaction id, so the retried message isn't duplicated.
+     *
+     * @param userId        bot's user id.
+     * @param roomId        room id.
+     * @param body          plain text.
+     * @param formattedBody html.
+     * @param txnId         transaction id, unique for the bot.
+     * @return the event id.
+     */
+    public CompletableFuture<String> sendFormattedNotice(String userId, String roomId, String body, String formattedBody, String txnId) {
+        JsonObject content = new JsonObject();
+        content.addProperty("msgtype", "m.notice");
+        content.addProperty("body", body);
+        content.addProperty("format", "org.matrix.custom.html");
+        content.addProperty("formatted_body", formattedBody);
+        HttpUrl url = url(userId, "rooms", roomId, "send", "m.room.message", txnId);
+        return call(new Request.Builder().url(url).put(RequestBody.create(JSON, content.toString())).build())
+            .thenApply(MatrixSender::eventId);
+    }
+
+    /**
+     * Redact the event.
+     *
+     * @param userId  bot's user id.
+     * @param roomId  room id.
+     * @param eventId event to redact.
+     * @param reason  reason or {@code null}.
+     * @return the event id of the redaction.
+     */
+    public CompletableFuture<String> redact(String userId, String roomId, String eventId, String reason) {
+        JsonObject content = new JsonObject();
+        if (reason != null) {
+            content.addProperty("reason", reason);
+        }
+        HttpUrl url = url(userId, "rooms", roomId, "redact", eventId, nextTxnId());
+        return call(new Request.Builder().url(url).put(RequestBody.create(JSON, content.toString())).build())
+            .thenApply(MatrixSender::eventId);
+    }
+
+    /**
+     * Send the read receipt.
+     *
+     * @param userId  bot's user id.
+     * @param roomId  room id.
+     * @param eventId the last read event.
+     * @return the future which completes when the homeserver has accepted the receipt.
+     */
+    public CompletableFuture<Void> receipt(String userId, String roomId, String eventId) {
+        HttpUrl url = url(userId, "rooms", roomId, "receipt", "m.read", eventId);
+        return call(new Request.Builder().url(url).post(RequestBody.create(JSON, "{}")).build()).thenApply(response -> null);
+    }
+
+    protected CompletableFuture<JsonObject> call(Request request) {
+        CompletableFuture<JsonObject> result = new CompletableFuture<>();
+        inFlight.incrementAndGet();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                inFlight.decrementAndGet();
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                inFlight.decrementAndGet();
+                try (ResponseBody body = response.body()) {
+                    String text = body != null ? body.string() : "";
+                    if (!response.isSuccessful()) {
+                        throw new ResponseException(response.code(), text);
+                    }
+                    JsonElement json = text.isEmpty() ? new JsonObject() : new JsonParser().parse(text);
+                    result.complete(json.isJsonObject() ? json.getAsJsonObject() : new JsonObject());
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    private HttpUrl url(String userId, String... segments) {
+        HttpUrl.Builder builder = homeserverUrl.newBuilder().addPathSegments("_matrix/client/r0");
+        for (String segment : segments) {
+            builder.addPathSegment(segment);
+        }
+        return builder.addQueryParameter("access_token", asToken).addQueryParameter("user_id", userId).build();
+    }
+
+    private String nextTxnId() {
+        return txnPrefix + txnCounter.incrementAndGet();
+    }
+
+    private static String eventId(JsonObject response) {
+        JsonElement eventId = response.get("event_id");
+        return eventId != null && !eventId.isJsonNull() ? eventId.getAsString() : null;
+    }
+
+    /**
+     * Error response of the homeserver.
+     */
+    public static class ResponseException extends IOException {
+
+        /**
+         * Too Many Requests.
+         */
+        private static final int TOO_MANY_REQUESTS = 429;
+
+        private static final int CLIENT_ERROR = 400;
+
+        private static final int SERVER_ERROR = 500;
+
+        private final int code;
+
+        public ResponseException(int code, String body) {
+            super("Homeserver responded " + code + ": " + body);
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * Check that the request will fail again (for example, the bot has left the room), except the rate limit.
+         *
+         * @param code http status code.
+         * @return {@code true} if the request shouldn't be retried.
+         */
+        public static boolean isPermanent(int code) {
+            return code >= CLIENT_ERROR && code < SERVER_ERROR && code != TOO_MANY_REQUESTS;
+        }
+
+        public boolean isPermanent() {
+            return isPermanent(code);
+        }
+    }
+
+    /**
+     * Compress the request bodies (the homeserver or its proxy should accept {@code Content-Encoding: gzip}).
+     */
+    private static class GzipRequestInterceptor implements Interceptor {
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            RequestBody body = request.body();
+            if (body == null || request.header("Content-Encoding") != null) {
+                return chain.proceed(request);
+            }
+            RequestBody gzipped = new RequestBody() {
+                @Override
+                public MediaType contentType() {
+                    return body.contentType();
+                }
+
+                @Override
+                public long contentLength() {
+                    return -1;
+                }
+
+                @Override
+                public void writeTo(BufferedSink sink) throws IOException {
+                    try (BufferedSink gzipSink = Okio.buffer(new GzipSink(sink))) {
+                        body.writeTo(gzipSink);
+                    }
+                }
+            };
+            return chain.proceed(request.newBuilder().header("Content-Encoding", "gzip").method(request.method(), gzipped).build());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.ma1uta.matrix.Event;
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns the images and files sent to the room into the attachments of the next toot.
+ */
+public class MediaEventHandler {
+
+    private static final String ROOM_MESSAGE = "m.room.message";
+
+    private static final String MXC = "mxc://";
+
+    private static final Set<String> MEDIA_TYPES = new HashSet<>(Arrays.asList("m.image", "m.file", "m.video", "m.audio"));
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Retrieve the content of the media message.
+     *
+     * @param event matrix event.
+     * @return the content or {@code null} if the event isn't an unencrypted image, file, video or audio.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> media(Event event) {
+        if (event.getContent() == null || !ROOM_MESSAGE.equals(event.getType())) {
+            return null;
+        }
+        Map<String, Object> content = mapper.convertValue(event.getContent(), Map.class);
+        Object url = content.get("url");
+        if (!MEDIA_TYPES.contains(content.get("msgtype")) || url == null || !url.toString().startsWith(MXC)) {
+            return null;
+        }
+        return content;
+    }
+
+    /**
+     * Start uploading the media to the mastodon.
+     *
+     * @param holder        bot's holder.
+     * @param roomId        room id.
+     * @param content       content of the media message.
+     * @param homeserverUrl homeserver url to download the media.
+     */
+    @SuppressWarnings("unchecked")
+    public void handle(Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder, String roomId,
+                       Map<String, Object> content, String homeserverUrl) {
+        String server = homeserverUrl.endsWith("/") ? homeserverUrl.substring(0, homeserverUrl.length() - 1) : homeserverUrl;
+        String downloadUrl = server + "/_matrix/media/r0/download/" + content.get("url").toString().substring(MXC.length());
+        Object body = content.get("body");
+        String filename = body != null && !body.toString().trim().isEmpty() ? body.toString().trim() : "file";
+        Object info = content.get("info");
+        Object mimeType = info instanceof Map ? ((Map<String, Object>) info).get("mimetype") : null;
+        holder.getData().getMediaUploads().upload(roomId, downloadUrl, filename, mimeType != null ? mimeType.toString() : null);
+    }
+}
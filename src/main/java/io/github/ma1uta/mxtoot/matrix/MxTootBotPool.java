@@ -16,19 +16,32 @@
 
 package io.github.ma1uta.mxtoot.matrix;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.dropwizard.lifecycle.Managed;
+import io.github.ma1uta.matrix.Event;
 import io.github.ma1uta.matrix.Id;
 import io.github.ma1uta.matrix.bot.AbstractApplicationServiceBotPool;
 import io.github.ma1uta.matrix.bot.Bot;
 import io.github.ma1uta.matrix.bot.Command;
+import io.github.ma1uta.matrix.bot.Context;
 import io.github.ma1uta.mxtoot.BotConfiguration;
+import io.github.ma1uta.mxtoot.Lanes;
+import io.github.ma1uta.mxtoot.Threads;
 import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
 import io.github.ma1uta.mxtoot.matrix.command.StatusCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.ws.rs.client.Client;
 
 /**
@@ -40,7 +53,22 @@ public class MxTootBotPool extends
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MxTootBotPool.class);
 
+    /**
+     * Name of the command after the prefix.
+     */
+    private static final Pattern COMMAND = Pattern.compile("\\s*\\W*(\\w+)");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String ROOM_MEMBER = "m.room.member";
+
     private final BotConfiguration botConfiguration;
+    private final MxTootPersistentService<MxTootDao> botService;
+    private final Map<String, Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient>> holders =
+        new ConcurrentHashMap<>();
+    private final BridgedEventHandler bridgedEventHandler = new BridgedEventHandler();
+    private final MediaEventHandler mediaEventHandler = new MediaEventHandler();
+    private final Lanes lanes = new Lanes(Threads.workers());
 
     public MxTootBotPool(BotConfiguration botConfiguration, MxTootPersistentService<MxTootDao> service, Client client,
                          List<Class<? extends Command<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>,
@@ -48,12 +76,33 @@ public class MxTootBotPool extends
         super(botConfiguration.getHomeserverUrl(), botConfiguration.getDisplayName(), client,
             botConfiguration.getAsToken(), service, cmds);
         this.botConfiguration = botConfiguration;
+        this.botService = service;
     }
 
     public BotConfiguration getBotConfiguration() {
         return botConfiguration;
     }
 
+    public MxTootPersistentService<MxTootDao> getBotService() {
+        return botService;
+    }
+
+    public Map<String, Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient>> getHolders() {
+        return holders;
+    }
+
+    public BridgedEventHandler getBridgedEventHandler() {
+        return bridgedEventHandler;
+    }
+
+    public MediaEventHandler getMediaEventHandler() {
+        return mediaEventHandler;
+    }
+
+    public Lanes getLanes() {
+        return lanes;
+    }
+
     @Override
     protected MxTootConfig createConfig(String username) {
         MxTootConfig config = new MxTootConfig();
@@ -77,6 +126,11 @@ public class MxTootBotPool extends
         config.setFollowFormat(getBotConfiguration().getFollowFormat());
         config.setFavouriteFormat(getBotConfiguration().getFavouriteFormat());
         config.setFetchMissingStatuses(getBotConfiguration().getFetchMissingStatuses());
+        config.setTimelineBufferSize(getBotConfiguration().getTimelineBufferSize());
+        config.setSearchRetention(getBotConfiguration().getSearchRetention());
+        config.setBridgedEventRetention(getBotConfiguration().getBridgedEventRetention());
+        config.setDigestState(DigestState.OFF);
+        config.setDigestInterval(getBotConfiguration().getDigestInterval());
         config.setPrefix(getBotConfiguration().getPrefix());
 
         return config;
@@ -85,8 +139,16 @@ public class MxTootBotPool extends
     @Override
     protected void initializeBot(Bot<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> bot) {
         bot.setInitAction((holder, dao) -> {
+            String userId = holder.getConfig().getUserId();
+            getHolders().put(userId, holder);
+            holder.addShutdownListener(() -> {
+                getHolders().remove(userId);
+                JoinedRooms.remove(userId);
+                return null;
+            });
+
+            List<String> joinedRooms = JoinedRooms.of(holder).load();
             if (TimelineState.AUTO.equals(holder.getConfig().getTimelineState())) {
-                List<String> joinedRooms = holder.getMatrixClient().room().joinedRooms().join();
                 joinedRooms.forEach(roomId -> {
                     if (!StatusCommand.initMastodonClient(holder)) {
                         holder.getMatrixClient().event()
@@ -101,6 +163,146 @@ public class MxTootBotPool extends
         });
     }
 
+    /**
+     * Process the event in the lane of the room.
+     * <br>
+     * Events and commands of the one room (the bot's room) run one by one, the rooms run concurrently on the worker pool.
+     * The command which exceeds its timeout is reported as failed and interrupted, the next event of the room waits until it returns.
+     *
+     * @param roomId room id.
+     * @param event  event.
+     * @return {@code true} if the event has been processed by a bot.
+     */
+    public CompletableFuture<Boolean> sendAsync(String roomId, Event event) {
+        long timeout = TimeUnit.SECONDS.toMillis(commandTimeout(event));
+        return getLanes().submit(roomId, () -> send(roomId, event), timeout).exceptionally(e -> {
+            LOGGER.error("Cannot process the event " + event.getEventId() + " in the room " + roomId, e);
+            return false;
+        });
+    }
+
+    /**
+     * Find the timeout of the command.
+     *
+     * @param event event.
+     * @return the timeout in seconds.
+     */
+    @SuppressWarnings("unchecked")
+    protected int commandTimeout(Event event) {
+        Map<String, Integer> timeouts = getBotConfiguration().getCommandTimeouts();
+        if (timeouts != null && !timeouts.isEmpty() && event.getContent() != null) {
+            Object body = MAPPER.convertValue(event.getContent(), Map.class).get("body");
+            if (body != null) {
+                Matcher matcher = COMMAND.matcher(body.toString());
+                Integer timeout = matcher.lookingAt() ? timeouts.get(matcher.group(1).toLowerCase()) : null;
+                if (timeout != null) {
+                    return timeout;
+                }
+            }
+        }
+        return getBotConfiguration().getCommandTimeout();
+    }
+
+    @Override
+    public boolean send(String roomId, Event event) {
+        if (ROOM_MEMBER.equals(event.getType()) && event.getContent() != null) {
+            Object membership = MAPPER.convertValue(event.getContent(), Map.class).get("membership");
+            JoinedRooms.membership(event.getStateKey(), roomId, membership != null ? membership.toString() : null);
+        }
+
+        String relatedEventId = getBridgedEventHandler().relatedEventId(event);
+        if (relatedEventId != null) {
+            Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder = null;
+            MxTootEvent bridged = null;
+            List<Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient>> owned =
+                ownerBots(roomId, event.getSender());
+            for (Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> candidate : owned) {
+                if (candidate.getData() != null) {
+                    bridged = candidate.getData().getEventIndex().get(relatedEventId);
+                    if (bridged != null) {
+                        holder = candidate;
+                        break;
+                    }
+                }
+            }
+            if (bridged == null && !owned.isEmpty()) {
+                bridged = getBotService().invoke((Function<MxTootDao, MxTootEvent>) dao -> dao.findEvent(relatedEventId));
+                String botId = bridged != null ? bridged.getBotId() : null;
+                holder = owned.stream().filter(candidate -> candidate.getConfig().getUserId().equals(botId)).findFirst().orElse(null);
+            }
+
+            if (bridged != null && holder != null && event.getSender().equals(holder.getConfig().getOwner())
+                && StatusCommand.initMastodonClient(holder)) {
+                getBridgedEventHandler().handle(holder, roomId, event, bridged);
+                read(holder, roomId, event);
+                return true;
+            }
+        }
+
+        Map<String, Object> media = getMediaEventHandler().media(event);
+        if (media != null) {
+            Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder =
+                ownerBot(roomId, event.getSender());
+            if (holder != null && StatusCommand.initMastodonClient(holder)) {
+                getMediaEventHandler().handle(holder, roomId, media, getBotConfiguration().getHomeserverUrl());
+                read(holder, roomId, event);
+                return true;
+            }
+        }
+        return super.send(roomId, event);
+    }
+
+    /**
+     * Mark the handled event as read by the bot.
+     *
+     * @param holder bot's holder.
+     * @param roomId room id.
+     * @param event  handled event.
+     */
+    protected void read(Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder, String roomId,
+                        Event event) {
+        MatrixSender sender = MatrixSender.get();
+        if (sender != null && event.getEventId() != null) {
+            sender.receipt(holder.getConfig().getUserId(), roomId, event.getEventId()).exceptionally(e -> {
+                LOGGER.warn("Cannot send the read receipt of " + event.getEventId(), e);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Find the bot in the room which belongs to the sender.
+     *
+     * @param roomId room id.
+     * @param sender sender of the event.
+     * @return the bot's holder or {@code null} if the sender doesn't own a bot in the room.
+     */
+    protected Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> ownerBot(String roomId,
+                                                                                                               String sender) {
+        List<Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient>> owned = ownerBots(roomId, sender);
+        return owned.isEmpty() ? null : owned.get(0);
+    }
+
+    /**
+     * Find the bots in the room which belong to the sender.
+     * <br>
+     * Only these bots can handle the replies of the sender, so the other bots' events aren't looked up.
+     *
+     * @param roomId room id.
+     * @param sender sender of the event.
+     * @return the bots' holders.
+     */
+    protected List<Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient>> ownerBots(String roomId,
+                                                                                                                     String sender) {
+        List<Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient>> owned = new ArrayList<>();
+        for (Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> candidate : getHolders().values()) {
+            if (sender != null && sender.equals(candidate.getConfig().getOwner()) && JoinedRooms.of(candidate).contains(roomId)) {
+                owned.add(candidate);
+            }
+        }
+        return owned;
+    }
+
     @Override
     public void start() {
         super.start();
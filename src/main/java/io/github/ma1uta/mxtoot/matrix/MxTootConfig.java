@@ -17,7 +17,10 @@
 package io.github.ma1uta.mxtoot.matrix;
 
 import io.github.ma1uta.matrix.bot.BotConfig;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
@@ -29,8 +32,12 @@ import javax.validation.constraints.Size;
 
 /**
  * Matrix bot persistent configuration.
+ * <br>
+ * Configurations are kept in the second-level cache, saves and deletes through the session update the cache.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "botconfig")
 @NamedQueries( {@NamedQuery(name = "matrix.bot.findAll", query = "select d from MxTootConfig d"),
     @NamedQuery(name = "matrix.bot.findByUserId", query = "select d from MxTootConfig d where d.userId = :userId")})
@@ -133,6 +140,44 @@ public class MxTootConfig extends BotConfig {
     @Size(max = 4000)
     private String followFormat;
 
+    /**
+     * Count of the last streamed statuses to keep in memory.
+     */
+    @Column(name = "timeline_buffer_size")
+    private Integer timelineBufferSize;
+
+    /**
+     * How long (in hours) keep streamed statuses in the search index.
+     */
+    @Column(name = "search_retention")
+    private Integer searchRetention;
+
+    /**
+     * How long (in hours) keep the bridged events to reply to them.
+     */
+    @Column(name = "bridged_event_retention")
+    private Integer bridgedEventRetention;
+
+    /**
+     * Notification digest state.
+     */
+    @Column(name = "digest_state")
+    @Enumerated(EnumType.STRING)
+    private DigestState digestState;
+
+    /**
+     * Interval between notification summaries in minutes.
+     */
+    @Column(name = "digest_interval")
+    private Integer digestInterval;
+
+    /**
+     * Status filter rules, one per line.
+     */
+    @Column(name = "filters", length = 4000)
+    @Size(max = 4000)
+    private String filters;
+
     public String getMastodonServer() {
         return mastodonServer;
     }
@@ -253,6 +298,54 @@ public class MxTootConfig extends BotConfig {
         this.followFormat = followFormat;
     }
 
+    public Integer getTimelineBufferSize() {
+        return timelineBufferSize;
+    }
+
+    public void setTimelineBufferSize(Integer timelineBufferSize) {
+        this.timelineBufferSize = timelineBufferSize;
+    }
+
+    public Integer getSearchRetention() {
+        return searchRetention;
+    }
+
+    public void setSearchRetention(Integer searchRetention) {
+        this.searchRetention = searchRetention;
+    }
+
+    public Integer getBridgedEventRetention() {
+        return bridgedEventRetention;
+    }
+
+    public void setBridgedEventRetention(Integer bridgedEventRetention) {
+        this.bridgedEventRetention = bridgedEventRetention;
+    }
+
+    public DigestState getDigestState() {
+        return digestState;
+    }
+
+    public void setDigestState(DigestState digestState) {
+        this.digestState = digestState;
+    }
+
+    public Integer getDigestInterval() {
+        return digestInterval;
+    }
+
+    public void setDigestInterval(Integer digestInterval) {
+        this.digestInterval = digestInterval;
+    }
+
+    public String getFilters() {
+        return filters;
+    }
+
+    public void setFilters(String filters) {
+        this.filters = filters;
+    }
+
     @Override
     public boolean equals(Object o) {
         return super.equals(o);
@@ -20,6 +20,7 @@ import io.dropwizard.hibernate.AbstractDAO;
 import io.github.ma1uta.matrix.bot.BotDao;
 import org.hibernate.SessionFactory;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -48,13 +49,15 @@ public class MxTootDao extends AbstractDAO<MxTootConfig> implements BotDao<MxToo
 
     /**
      * Check that specified user exists.
+     * <br>
+     * The query result is cached and invalidated when any bot's configuration is saved or deleted.
      *
      * @param userId mxid.
      * @return {@code true} if user exists or {@code false}.
      */
     @SuppressWarnings("unchecked")
     public boolean user(String userId) {
-        return uniqueResult(namedQuery("matrix.bot.findByUserId").setParameter("userId", userId)) != null;
+        return uniqueResult(namedQuery("matrix.bot.findByUserId").setParameter("userId", userId).setCacheable(true)) != null;
     }
 
     /**
@@ -75,4 +78,34 @@ public class MxTootDao extends AbstractDAO<MxTootConfig> implements BotDao<MxToo
     public void delete(MxTootConfig data) {
         currentSession().delete(data);
     }
+
+    /**
+     * Save the matrix event which was sent for the mastodon status.
+     *
+     * @param event bridged event.
+     */
+    public void saveEvent(MxTootEvent event) {
+        currentSession().saveOrUpdate(event);
+    }
+
+    /**
+     * Find the bridged event by its id.
+     *
+     * @param eventId matrix event id.
+     * @return bridged event or {@code null}.
+     */
+    public MxTootEvent findEvent(String eventId) {
+        return currentSession().get(MxTootEvent.class, eventId);
+    }
+
+    /**
+     * Delete the bridged events of the bot which were sent before the specified time.
+     *
+     * @param botId  bot's mxid.
+     * @param before the oldest kept event time.
+     * @return count of the deleted events.
+     */
+    public int deleteEvents(String botId, LocalDateTime before) {
+        return namedQuery("matrix.event.deleteBefore").setParameter("botId", botId).setParameter("before", before).executeUpdate();
+    }
 }
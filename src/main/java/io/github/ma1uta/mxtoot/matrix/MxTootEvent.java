@@ -0,0 +1,118 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix;
+
+import java.time.LocalDateTime;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+/**
+ * Matrix event which was sent by bot for the mastodon status.
+ */
+@Entity
+@Table(name = "bridged_event")
+@NamedQuery(name = "matrix.event.deleteBefore", query = "delete from MxTootEvent e where e.botId = :botId and e.created < :before")
+public class MxTootEvent {
+
+    /**
+     * Matrix event id.
+     */
+    @Id
+    @Column(name = "event_id")
+    private String eventId;
+
+    /**
+     * Bot's mxid.
+     */
+    @Column(name = "bot_id")
+    private String botId;
+
+    /**
+     * Mastodon status id.
+     */
+    @Column(name = "status_id")
+    private Long statusId;
+
+    /**
+     * Visibility of the status.
+     */
+    @Column(name = "visibility")
+    private String visibility;
+
+    /**
+     * Author of the status (acct).
+     */
+    @Column(name = "account")
+    private String account;
+
+    /**
+     * When the event was sent.
+     */
+    @Column(name = "created")
+    private LocalDateTime created;
+
+    public String getEventId() {
+        return eventId;
+    }
+
+    public void setEventId(String eventId) {
+        this.eventId = eventId;
+    }
+
+    public String getBotId() {
+        return botId;
+    }
+
+    public void setBotId(String botId) {
+        this.botId = botId;
+    }
+
+    public Long getStatusId() {
+        return statusId;
+    }
+
+    public void setStatusId(Long statusId) {
+        this.statusId = statusId;
+    }
+
+    public String getVisibility() {
+        return visibility;
+    }
+
+    public void setVisibility(String visibility) {
+        this.visibility = visibility;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public void setAccount(String account) {
+        this.account = account;
+    }
+
+    public LocalDateTime getCreated() {
+        return created;
+    }
+
+    public void setCreated(LocalDateTime created) {
+        this.created = created;
+    }
+}
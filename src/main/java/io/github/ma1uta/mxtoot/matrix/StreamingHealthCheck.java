@@ -0,0 +1,89 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix;
+
+import com.codahale.metrics.health.HealthCheck;
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+import io.github.ma1uta.mxtoot.mastodon.StreamState;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Health of the bots' streams.
+ * <br>
+ * Unhealthy if any bot which should stream is retrying longer than {@link #STALE_TIMEOUT}, is connected but hasn't received
+ * any event or heartbeat for {@link #STALE_TIMEOUT} or has exited.
+ * Reads only the volatile stream state so it is cheap to poll with the thousands of bots.
+ */
+public class StreamingHealthCheck extends HealthCheck {
+
+    /**
+     * How long the stream may retry or be silent before the bot is reported.
+     */
+    public static final long STALE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Max count of the reported bots.
+     */
+    private static final int MAX_DETAILS = 50;
+
+    private final MxTootBotPool botPool;
+
+    public StreamingHealthCheck(MxTootBotPool botPool) {
+        this.botPool = botPool;
+    }
+
+    @Override
+    protected Result check() {
+        long now = System.currentTimeMillis();
+        Map<StreamState.Phase, Integer> phases = new EnumMap<>(StreamState.Phase.class);
+        Map<String, String> failed = new TreeMap<>();
+        int failedCount = 0;
+        for (Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder : botPool.getHolders()
+            .values()) {
+            MxMastodonClient mastodonClient = holder.getData();
+            if (mastodonClient == null) {
+                continue;
+            }
+            StreamState state = mastodonClient.getStreamState();
+            StreamState.Phase phase = state.getPhase();
+            phases.merge(phase, 1, Integer::sum);
+
+            boolean expected = TimelineState.AUTO.equals(holder.getConfig().getTimelineState());
+            boolean stale = phase == StreamState.Phase.RETRYING && now - state.getSince() > STALE_TIMEOUT
+                || phase == StreamState.Phase.CONNECTED && now - Math.max(state.getSince(), state.getLastEvent()) > STALE_TIMEOUT;
+            if (stale || expected && phase == StreamState.Phase.STOPPED) {
+                failedCount++;
+                if (failed.size() < MAX_DETAILS) {
+                    failed.put(holder.getConfig().getUserId(), state.toString());
+                }
+            }
+        }
+
+        ResultBuilder builder = failedCount == 0 ? Result.builder().healthy() : Result.builder().unhealthy()
+            .withMessage("%d bot(s) aren't streaming", failedCount);
+        phases.forEach((phase, count) -> builder.withDetail(phase.name().toLowerCase(), count));
+        if (!failed.isEmpty()) {
+            builder.withDetail("failed", failed);
+        }
+        return builder.build();
+    }
+}
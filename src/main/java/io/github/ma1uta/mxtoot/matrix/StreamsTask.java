@@ -0,0 +1,80 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix;
+
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+import io.github.ma1uta.mxtoot.mastodon.StreamState;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Admin task to list or restart the bots' streams.
+ * <br>
+ * Usage:
+ * <ul>
+ * <li>{@code POST /tasks/streams} - list all streams.</li>
+ * <li>{@code POST /tasks/streams?phase=retrying} - list streams in the phase.</li>
+ * <li>{@code POST /tasks/streams?action=restart&phase=retrying} - restart streams in the phase.</li>
+ * <li>{@code POST /tasks/streams?action=restart&bot=@mxtoot_1:matrix.org&bot=...} - restart streams of the bots.</li>
+ * </ul>
+ */
+public class StreamsTask extends Task {
+
+    private final MxTootBotPool botPool;
+
+    public StreamsTask(MxTootBotPool botPool) {
+        super("streams");
+        this.botPool = botPool;
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) {
+        boolean restart = parameters.get("action").stream().anyMatch("restart"::equalsIgnoreCase);
+        Collection<String> phases = parameters.get("phase");
+        Collection<String> bots = parameters.get("bot");
+
+        int count = 0;
+        for (Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder : botPool.getHolders()
+            .values()) {
+            MxMastodonClient mastodonClient = holder.getData();
+            if (mastodonClient == null) {
+                continue;
+            }
+            String userId = holder.getConfig().getUserId();
+            StreamState state = mastodonClient.getStreamState();
+            if (!bots.isEmpty() && !bots.contains(userId)
+                || !phases.isEmpty() && !phases.contains(state.getPhase().name().toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+
+            if (restart) {
+                mastodonClient.get();
+                output.println(userId + ": " + (mastodonClient.streaming() ? "restarted" : "failed to restart"));
+            } else {
+                output.println(userId + ": " + state);
+            }
+            count++;
+        }
+        output.println("Total: " + count);
+        output.flush();
+    }
+}
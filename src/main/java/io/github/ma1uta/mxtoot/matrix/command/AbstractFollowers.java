@@ -20,6 +20,13 @@ import com.sys1yagi.mastodon4j.api.Pageable;
 import com.sys1yagi.mastodon4j.api.entity.Account;
 import com.sys1yagi.mastodon4j.api.exception.Mastodon4jRequestException;
 import com.sys1yagi.mastodon4j.api.method.Accounts;
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+import io.github.ma1uta.mxtoot.mastodon.PageCursors;
+import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
+import io.github.ma1uta.mxtoot.matrix.MxTootDao;
+import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,6 +34,8 @@ import java.util.stream.Collectors;
 
 /**
  * Show followers.
+ * <br>
+ * Cursors of the visited pages are cached, so the deep page costs only one request.
  */
 public abstract class AbstractFollowers extends NotNullAction {
 
@@ -36,9 +45,22 @@ public abstract class AbstractFollowers extends NotNullAction {
 
     protected abstract Pageable<Account> getAccounts(Accounts accounts, Account account, long maxId) throws Mastodon4jRequestException;
 
+    @Override
+    protected Pair<Boolean, String> checkArgument(
+        Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder, String arguments) {
+        Pair<Boolean, String> validation = super.checkArgument(holder, arguments);
+        return validation.getLeft() ? Pair.of(true, arguments.trim().split("\\s+")[0]) : validation;
+    }
+
     @Override
     protected String action(Accounts accounts, Account account, String arguments) throws Mastodon4jRequestException {
-        String[] params = arguments.split("\\s+");
+        return action(null, accounts, account, arguments);
+    }
+
+    @Override
+    protected String action(MxMastodonClient mastodonClient, Accounts accounts, Account account, String arguments)
+        throws Mastodon4jRequestException {
+        String[] params = arguments.trim().split("\\s+");
         long pageNumber = 1L;
 
         if (params.length > 1) {
@@ -50,15 +72,27 @@ public abstract class AbstractFollowers extends NotNullAction {
             }
         }
 
-        Pageable<Account> pageable = getAccounts(accounts, account);
-        long maxId;
-        while (pageNumber > 1) {
+        PageCursors cursors = mastodonClient != null ? mastodonClient.getPageCursors() : null;
+        long page = pageNumber;
+        Long maxId = null;
+        while (cursors != null && page > 1 && maxId == null) {
+            maxId = cursors.get(name(), account.getId(), page);
+            if (maxId == null) {
+                page--;
+            }
+        }
+
+        Pageable<Account> pageable = maxId != null ? getAccounts(accounts, account, maxId) : getAccounts(accounts, account);
+        while (page < pageNumber) {
             if (pageable.getLink() == null) {
                 return "Cannot found followers.";
             }
             maxId = pageable.getLink().getSinceId();
+            page++;
+            if (cursors != null) {
+                cursors.put(name(), account.getId(), page, maxId);
+            }
             pageable = getAccounts(accounts, account, maxId);
-            pageNumber--;
         }
         return pageable.getPart().stream().map(Account::getAcct).collect(Collectors.joining("\n"));
     }
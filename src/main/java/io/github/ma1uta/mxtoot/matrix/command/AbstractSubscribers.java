@@ -23,6 +23,7 @@ import io.github.ma1uta.matrix.Event;
 import io.github.ma1uta.matrix.bot.Context;
 import io.github.ma1uta.matrix.bot.command.OwnerCommand;
 import io.github.ma1uta.matrix.client.methods.EventMethods;
+import io.github.ma1uta.mxtoot.mastodon.AccountCache;
 import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
 import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
 import io.github.ma1uta.mxtoot.matrix.MxTootDao;
@@ -35,7 +36,10 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 /**
- * Stop follow to somebody.
+ * Common parent of the commands which act on the account (follow, block, mute, ...).
+ * <br>
+ * Accounts are resolved via the cache of the mastodon instance, the search is invoked only on a miss or when the cached account
+ * is stale.
  */
 public abstract class AbstractSubscribers extends
     OwnerCommand<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> implements
@@ -45,9 +49,52 @@ public abstract class AbstractSubscribers extends
 
     protected abstract String action(Accounts accounts, Account account, String arguments) throws Mastodon4jRequestException;
 
+    protected String action(MxMastodonClient mastodonClient, Accounts accounts, Account account, String arguments)
+        throws Mastodon4jRequestException {
+        return action(accounts, account, arguments);
+    }
+
     protected abstract Pair<Boolean, String> checkArgument(
         Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder, String arguments);
 
+    /**
+     * Resolve the account by the exact acct via cache or search.
+     *
+     * @param accountCache accounts of the mastodon instance.
+     * @param accounts     account methods.
+     * @param acct         acct.
+     * @param domain       domain of the bot's mastodon instance.
+     * @return account or {@code null} if not found.
+     * @throws Mastodon4jRequestException when failed to search.
+     */
+    protected static Account resolve(AccountCache accountCache, Accounts accounts, String acct, String domain)
+        throws Mastodon4jRequestException {
+        String localAcct = localAcct(acct, domain);
+        Account cached = accountCache.get(localAcct);
+        if (cached != null) {
+            return cached;
+        }
+        List<Account> found = accounts.getAccountSearch(localAcct).execute();
+        found.forEach(accountCache::put);
+        return found.stream().filter(a -> localAcct.equalsIgnoreCase(a.getAcct())).findFirst().orElse(null);
+    }
+
+    /**
+     * Mastodon returns the local accounts without the domain, so {@code user@own.domain} is the same as {@code user}.
+     *
+     * @param acct   acct.
+     * @param domain domain of the bot's mastodon instance.
+     * @return acct without the own domain.
+     */
+    protected static String localAcct(String acct, String domain) {
+        String suffix = "@" + domain;
+        if (domain != null && acct.length() > suffix.length() && acct.regionMatches(true, acct.length() - suffix.length(), suffix, 0,
+            suffix.length())) {
+            return acct.substring(0, acct.length() - suffix.length());
+        }
+        return acct;
+    }
+
     @Override
     protected boolean ownerInvoke(Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder,
                                   String roomId, Event event, String arguments) {
@@ -66,7 +113,20 @@ public abstract class AbstractSubscribers extends
             return false;
         }
 
-        String searchTerm = validation.getRight();
+        String searchTerm = localAcct(validation.getRight(), holder.getConfig().getMastodonServer());
+        AccountCache accountCache = mastodonClient.getInstance().getAccounts();
+        Account cached = accountCache.get(searchTerm);
+        if (cached != null) {
+            try {
+                String result = action(mastodonClient, accountsMethods, cached, arguments);
+                eventMethods.sendNotice(roomId, result != null ? result : String.format("%s to: %s", name(), cached.getUrl()));
+                return false;
+            } catch (Mastodon4jRequestException e) {
+                LOGGER.warn(String.format("Failed to %s the cached account, search again", name()), e);
+                accountCache.remove(searchTerm);
+            }
+        }
+
         try {
             accounts = accountsMethods.getAccountSearch(searchTerm).execute();
         } catch (Mastodon4jRequestException e) {
@@ -74,12 +134,13 @@ public abstract class AbstractSubscribers extends
             eventMethods.sendNotice(roomId, String.format("Failed to search %s", arguments));
             return false;
         }
+        accounts.forEach(accountCache::put);
         List<Account> candidates = accounts.stream().filter(a -> searchTerm.equalsIgnoreCase(a.getAcct())).collect(Collectors.toList());
 
         if (candidates.size() == 1) {
             try {
-                Account account = accounts.get(0);
-                String result = action(accountsMethods, account, arguments);
+                Account account = candidates.get(0);
+                String result = action(mastodonClient, accountsMethods, account, arguments);
                 eventMethods.sendNotice(roomId, result != null ? result : String.format("%s to: %s", name(), account.getUrl()));
             } catch (Mastodon4jRequestException e) {
                 LOGGER.error(String.format("Failed to %s", name()), e);
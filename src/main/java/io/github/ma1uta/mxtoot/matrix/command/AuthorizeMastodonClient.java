@@ -25,11 +25,11 @@ import io.github.ma1uta.matrix.Event;
 import io.github.ma1uta.matrix.bot.Context;
 import io.github.ma1uta.matrix.bot.command.OwnerCommand;
 import io.github.ma1uta.matrix.client.methods.EventMethods;
+import io.github.ma1uta.mxtoot.mastodon.HttpClients;
 import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
 import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
 import io.github.ma1uta.mxtoot.matrix.MxTootDao;
 import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
-import okhttp3.OkHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,7 +62,7 @@ public class AuthorizeMastodonClient extends OwnerCommand<MxTootConfig, MxTootDa
             return true;
         }
 
-        MastodonClient client = new MastodonClient.Builder(config.getMastodonServer(), new OkHttpClient.Builder(), new Gson()).build();
+        MastodonClient client = new MastodonClient.Builder(config.getMastodonServer(), HttpClients.requests(), new Gson()).build();
 
         Apps apps = new Apps(client);
         try {
@@ -16,8 +16,6 @@
 
 package io.github.ma1uta.mxtoot.matrix.command;
 
-import com.sys1yagi.mastodon4j.api.exception.Mastodon4jRequestException;
-import com.sys1yagi.mastodon4j.api.method.Statuses;
 import io.github.ma1uta.matrix.Event;
 import io.github.ma1uta.matrix.bot.Context;
 import io.github.ma1uta.matrix.client.methods.EventMethods;
@@ -65,12 +63,7 @@ public class Boost implements StatusCommand {
             return true;
         }
 
-        try {
-            new Statuses(context.getData().getMastodonClient()).postReblog(statusId).execute();
-        } catch (Mastodon4jRequestException e) {
-            LOGGER.error("Cannot toot", e);
-            eventMethods.sendNotice(roomId, "Cannot boost: " + e.getMessage());
-        }
+        context.getData().getPostingQueue().submit(roomId, "boost of " + statusId, "statuses/" + statusId + "/reblog");
         return true;
     }
 
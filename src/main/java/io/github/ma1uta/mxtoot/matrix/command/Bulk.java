@@ -0,0 +1,297 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix.command;
+
+import com.sys1yagi.mastodon4j.api.entity.Account;
+import com.sys1yagi.mastodon4j.api.exception.Mastodon4jRequestException;
+import com.sys1yagi.mastodon4j.api.method.Accounts;
+import io.github.ma1uta.matrix.Event;
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.matrix.bot.command.OwnerCommand;
+import io.github.ma1uta.matrix.client.methods.EventMethods;
+import io.github.ma1uta.mxtoot.Threads;
+import io.github.ma1uta.mxtoot.mastodon.AccountCache;
+import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
+import io.github.ma1uta.mxtoot.matrix.MxTootDao;
+import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follow, unfollow, block, unblock, mute or unmute a list of the accounts.
+ * <br>
+ * Accepts accts separated by spaces, commas or new lines, or the mastodon's CSV export (the first column is the acct).
+ * Accounts are processed one by one, requests of the one bot are paced to stay within its rate limit. No thread waits
+ * between the requests: the next request is scheduled and runs in the {@link Threads#tasks()} executor. The progress is reported
+ * every {@link #PROGRESS_INTERVAL}.
+ */
+public class Bulk extends OwnerCommand<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Bulk.class);
+
+    /**
+     * Min interval between requests (mastodon allows 300 requests per 5 minutes, keep a half for other actions).
+     */
+    private static final long REQUEST_INTERVAL = TimeUnit.SECONDS.toMillis(2);
+
+    /**
+     * Max count of the failures to show in the summary.
+     */
+    private static final int MAX_FAILURES = 20;
+
+    /**
+     * How often to report the progress of the long run.
+     */
+    private static final long PROGRESS_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Map<String, AbstractSubscribers> ACTIONS = new HashMap<>();
+
+    static {
+        ACTIONS.put("follow", new Follow());
+        ACTIONS.put("unfollow", new Unfollow());
+        ACTIONS.put("block", new Block());
+        ACTIONS.put("unblock", new Unblock());
+        ACTIONS.put("mute", new Mute());
+        ACTIONS.put("unmute", new Unmute());
+    }
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mxtoot-bulk");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The time of the next request slot by the bot (the mastodon rate limit is per account).
+     */
+    private static final Map<String, Long> NEXT_REQUEST = new ConcurrentHashMap<>();
+
+    @Override
+    public String name() {
+        return "bulk";
+    }
+
+    @Override
+    public boolean ownerInvoke(Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder,
+                               String roomId, Event event, String arguments) {
+        EventMethods eventMethods = holder.getMatrixClient().event();
+        if (!StatusCommand.initMastodonClient(holder)) {
+            return false;
+        }
+
+        if (arguments == null || arguments.trim().isEmpty()) {
+            eventMethods.sendNotice(roomId, "Usage: " + usage());
+            return true;
+        }
+
+        String[] params = arguments.trim().split("\\s+", 2);
+        AbstractSubscribers action = ACTIONS.get(params[0].toLowerCase());
+        if (action == null || params.length < 2) {
+            eventMethods.sendNotice(roomId, "Usage: " + usage());
+            return true;
+        }
+
+        Set<String> accts = parse(params[1]);
+        if (accts.isEmpty()) {
+            eventMethods.sendNotice(roomId, "Accounts not found.\nUsage: " + usage());
+            return true;
+        }
+
+        eventMethods.sendNotice(roomId, String.format("Start to %s %d accounts.", action.name(), accts.size()));
+        MxMastodonClient mastodonClient = holder.getData();
+        Job job = new Job(holder.getConfig().getUserId(), mastodonClient, action, accts, holder.getConfig().getMastodonServer(),
+            message -> eventMethods.sendNotice(roomId, message));
+        job.schedule();
+        job.result.thenAccept(summary -> eventMethods.sendNotice(roomId, summary));
+        return true;
+    }
+
+    /**
+     * Parse the list of the accts or the CSV.
+     *
+     * @param text accts or CSV.
+     * @return accts.
+     */
+    protected Set<String> parse(String text) {
+        Set<String> accts = new LinkedHashSet<>();
+        for (String line : text.split("\\r?\\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("Account address")) {
+                continue;
+            }
+            if (trimmed.contains(",") && trimmed.indexOf(' ') == -1) {
+                String first = trimmed.split(",")[0].trim();
+                String second = trimmed.split(",").length > 1 ? trimmed.split(",")[1].trim() : "";
+                if ("true".equalsIgnoreCase(second) || "false".equalsIgnoreCase(second)) {
+                    addAcct(accts, first);
+                    continue;
+                }
+            }
+            for (String acct : trimmed.split("[\\s,]+")) {
+                addAcct(accts, acct);
+            }
+        }
+        return accts;
+    }
+
+    private void addAcct(Set<String> accts, String acct) {
+        String trimmed = acct.trim();
+        if (trimmed.startsWith("@")) {
+            trimmed = trimmed.substring(1);
+        }
+        if (!trimmed.isEmpty()) {
+            accts.add(trimmed);
+        }
+    }
+
+    /**
+     * Take the next request slot of the bot.
+     *
+     * @param botId bot's user id.
+     * @return delay in milliseconds before the request.
+     */
+    protected static long delay(String botId) {
+        long now = System.currentTimeMillis();
+        long next = NEXT_REQUEST.compute(botId, (key, slot) -> Math.max(now, slot != null ? slot : 0L) + REQUEST_INTERVAL);
+        return next - REQUEST_INTERVAL - now;
+    }
+
+    /**
+     * Bulk action in progress: one request per step, the steps are scheduled in the pace of the bot.
+     */
+    protected static class Job {
+
+        private final String botId;
+        private final AbstractSubscribers action;
+        private final Accounts accounts;
+        private final AccountCache accountCache;
+        private final Iterator<String> accts;
+        private final int total;
+        private final String domain;
+        private final Consumer<String> progress;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final Map<String, String> failures = new LinkedHashMap<>();
+        private int succeeded = 0;
+        private int processed = 0;
+        private long nextProgress = System.currentTimeMillis() + PROGRESS_INTERVAL;
+        private String acct;
+        private Account account;
+
+        Job(String botId, MxMastodonClient mastodonClient, AbstractSubscribers action, Set<String> accts, String domain,
+            Consumer<String> progress) {
+            this.botId = botId;
+            this.action = action;
+            this.accounts = new Accounts(mastodonClient.getMastodonClient());
+            this.accountCache = mastodonClient.getInstance().getAccounts();
+            this.accts = accts.iterator();
+            this.total = accts.size();
+            this.domain = domain;
+            this.progress = progress;
+        }
+
+        /**
+         * Schedule the next step or complete the job.
+         */
+        protected void schedule() {
+            if (account == null && !accts.hasNext()) {
+                result.complete(summary());
+                return;
+            }
+            try {
+                SCHEDULER.schedule(() -> Threads.tasks().execute(this::step), delay(botId), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                LOGGER.error("Cannot schedule the bulk action", e);
+                result.complete(summary());
+            }
+        }
+
+        /**
+         * Resolve the next account or apply the action to the resolved one.
+         */
+        protected void step() {
+            try {
+                if (account == null) {
+                    acct = accts.next();
+                    account = AbstractSubscribers.resolve(accountCache, accounts, acct, domain);
+                    if (account == null) {
+                        failures.put(acct, "not found");
+                        processed();
+                    }
+                } else {
+                    Account current = account;
+                    account = null;
+                    action.action(accounts, current, acct);
+                    succeeded++;
+                    processed();
+                }
+            } catch (Mastodon4jRequestException | RuntimeException e) {
+                LOGGER.error(String.format("Failed to %s %s", action.name(), acct), e);
+                accountCache.remove(AbstractSubscribers.localAcct(acct, domain));
+                account = null;
+                failures.put(acct, e.getMessage() != null ? e.getMessage() : "failed");
+                processed();
+            }
+            schedule();
+        }
+
+        private void processed() {
+            processed++;
+            if (System.currentTimeMillis() >= nextProgress && processed < total) {
+                progress.accept(String.format("%s: %d of %d accounts processed, %d failed.", action.name(), processed, total,
+                    failures.size()));
+                nextProgress = System.currentTimeMillis() + PROGRESS_INTERVAL;
+            }
+        }
+
+        private String summary() {
+            StringBuilder summary = new StringBuilder(
+                String.format("%s: %d succeeded, %d failed.", action.name(), succeeded, failures.size()));
+            failures.entrySet().stream().limit(MAX_FAILURES)
+                .forEach(failure -> summary.append("\n").append(failure.getKey()).append(": ").append(failure.getValue()));
+            if (failures.size() > MAX_FAILURES) {
+                summary.append("\n...");
+            }
+            return summary.toString();
+        }
+    }
+
+    @Override
+    public String help() {
+        return "follow, unfollow, block, unblock, mute or unmute a list of the accounts or the mastodon's CSV export "
+            + "(can invoke only owner).";
+    }
+
+    @Override
+    public String usage() {
+        return "bulk [follow|unfollow|block|unblock|mute|unmute] <acct> [<acct> ...] or <CSV>";
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix.command;
+
+import io.github.ma1uta.matrix.Event;
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.matrix.bot.command.OwnerCommand;
+import io.github.ma1uta.matrix.client.methods.EventMethods;
+import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+import io.github.ma1uta.mxtoot.matrix.DigestState;
+import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
+import io.github.ma1uta.mxtoot.matrix.MxTootDao;
+import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enable or disable the digest of the favourites, boosts and follows.
+ */
+public class Digest extends OwnerCommand<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Digest.class);
+
+    @Override
+    public String name() {
+        return "digest";
+    }
+
+    @Override
+    public boolean ownerInvoke(Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder,
+                               String roomId, Event event, String arguments) {
+        MxTootConfig config = holder.getConfig();
+        EventMethods eventMethods = holder.getMatrixClient().event();
+
+        if (arguments == null || arguments.trim().isEmpty()) {
+            eventMethods.sendNotice(roomId, String.format("Digest is %s, interval %s minutes.\nUsage: %s",
+                config.getDigestState() != null ? config.getDigestState() : DigestState.OFF, config.getDigestInterval(), usage()));
+            return true;
+        }
+
+        String[] params = arguments.trim().split("\\s+");
+        DigestState state;
+        try {
+            state = DigestState.valueOf(params[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            eventMethods.sendNotice(roomId, "Usage: " + usage());
+            return true;
+        }
+        if (params.length > 1) {
+            try {
+                config.setDigestInterval(Integer.parseInt(params[1]));
+            } catch (NumberFormatException e) {
+                LOGGER.error("Wrong interval: " + params[1]);
+                eventMethods.sendNotice(roomId, "Interval is not a number.\nUsage: " + usage());
+                return true;
+            }
+        }
+        config.setDigestState(state);
+
+        if (StatusCommand.initMastodonClient(holder)) {
+            MxMastodonClient mastodonClient = holder.getData();
+            switch (state) {
+                case ON:
+                    mastodonClient.getDigest().start(mastodonClient.digestInterval());
+                    break;
+                case OFF:
+                    mastodonClient.getDigest().stop();
+                    break;
+                default:
+                    eventMethods.sendNotice(roomId, "Unknown state " + state);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String help() {
+        return "write favourites, boosts and follows as periodic summaries (can invoke only owner).";
+    }
+
+    @Override
+    public String usage() {
+        return "digest [on|off] [<interval in minutes>]";
+    }
+}
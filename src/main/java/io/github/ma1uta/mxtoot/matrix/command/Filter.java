@@ -0,0 +1,115 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix.command;
+
+import io.github.ma1uta.matrix.Event;
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.matrix.bot.command.OwnerCommand;
+import io.github.ma1uta.matrix.client.methods.EventMethods;
+import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+import io.github.ma1uta.mxtoot.mastodon.StatusFilter;
+import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
+import io.github.ma1uta.mxtoot.matrix.MxTootDao;
+import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Show, add or remove the rules to hide the unwanted statuses.
+ */
+public class Filter extends OwnerCommand<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> {
+
+    /**
+     * Max length of the stored rules.
+     */
+    private static final int MAX_LENGTH = 4000;
+
+    @Override
+    public String name() {
+        return "filter";
+    }
+
+    @Override
+    public boolean ownerInvoke(Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> holder,
+                               String roomId, Event event, String arguments) {
+        MxTootConfig config = holder.getConfig();
+        EventMethods eventMethods = holder.getMatrixClient().event();
+        List<String> rules = new ArrayList<>(StatusFilter.compile(config.getFilters()).getRules());
+
+        if (arguments == null || arguments.trim().isEmpty()) {
+            StringBuilder message = new StringBuilder(rules.isEmpty() ? "No filters." : "Filters:");
+            for (int i = 0; i < rules.size(); i++) {
+                message.append("\n").append(i + 1).append(". ").append(rules.get(i));
+            }
+            eventMethods.sendNotice(roomId, message.append("\nUsage: ").append(usage()).toString());
+            return true;
+        }
+
+        String[] params = arguments.trim().split("\\s+", 2);
+        String argument = params.length > 1 ? params[1].trim() : "";
+        switch (params[0].toLowerCase()) {
+            case "add":
+                rules.add(argument);
+                break;
+            case "remove":
+                try {
+                    rules.remove(Integer.parseInt(argument) - 1);
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    eventMethods.sendNotice(roomId, "Wrong filter number: " + argument);
+                    return true;
+                }
+                break;
+            case "clear":
+                rules.clear();
+                break;
+            default:
+                eventMethods.sendNotice(roomId, "Usage: " + usage());
+                return true;
+        }
+
+        String filters = String.join("\n", rules);
+        try {
+            StatusFilter.compile(filters);
+        } catch (IllegalArgumentException e) {
+            eventMethods.sendNotice(roomId, e.getMessage() + "\nUsage: " + usage());
+            return true;
+        }
+        if (filters.length() > MAX_LENGTH) {
+            eventMethods.sendNotice(roomId, "Too many filters.");
+            return true;
+        }
+
+        config.setFilters(filters.isEmpty() ? null : filters);
+        if (holder.getData() != null) {
+            holder.getData().resetStatusFilter();
+        }
+        eventMethods.sendNotice(roomId, "Filters updated.");
+        return true;
+    }
+
+    @Override
+    public String help() {
+        return "hide unwanted statuses: boosts, replies, keywords, languages, visibility or accounts (can invoke only owner).";
+    }
+
+    @Override
+    public String usage() {
+        return "filter [add boosts|replies|word <keyword>|regex <pattern>|language <codes>|visibility <list>|account <acct>"
+            + "|remove <number>|clear]";
+    }
+}
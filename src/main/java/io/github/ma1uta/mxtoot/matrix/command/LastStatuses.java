@@ -23,19 +23,31 @@ import com.sys1yagi.mastodon4j.api.method.Timelines;
 import io.github.ma1uta.matrix.Event;
 import io.github.ma1uta.matrix.bot.Context;
 import io.github.ma1uta.matrix.client.methods.EventMethods;
+import io.github.ma1uta.mxtoot.Threads;
 import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+import io.github.ma1uta.mxtoot.mastodon.StatusFilter;
 import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
 import io.github.ma1uta.mxtoot.matrix.MxTootDao;
 import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
 import org.jsoup.Jsoup;
+import org.jsoup.nodes.Entities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayDeque;
-import java.util.Queue;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 /**
- * Boost.
+ * Write the last statuses of the home timeline.
+ * <br>
+ * Pages are prefetched ahead, statuses are rendered in parallel and are sent as a few combined messages. The fetched statuses
+ * pass the bot's filter like the streamed ones.
  */
 public class LastStatuses implements StatusCommand {
 
@@ -43,6 +55,33 @@ public class LastStatuses implements StatusCommand {
 
     private static final long DEFAULT_COUNT = 20L;
 
+    /**
+     * Max count of the statuses per one invocation.
+     */
+    private static final long MAX_COUNT = 200L;
+
+    /**
+     * Max page size of the home timeline.
+     */
+    private static final int PAGE_SIZE = 40;
+
+    /**
+     * Max count of the fetched pages, so the strict filter doesn't scan the whole timeline.
+     */
+    private static final int MAX_PAGES = 20;
+
+    /**
+     * Max size of the {@code body} and the {@code formatted_body} of the combined message in bytes. The matrix event must be less
+     * than 65536 bytes, the rest is left for the event envelope.
+     */
+    private static final int MAX_MESSAGE_SIZE = 60000;
+
+    private static final String SEPARATOR = "<br/><br/>";
+
+    private static final String TEXT_SEPARATOR = "\n\n";
+
+    private static final String ELLIPSIS = "\u2026";
+
     @Override
     public String name() {
         return "last";
@@ -67,32 +106,134 @@ public class LastStatuses implements StatusCommand {
                 return true;
             }
         }
+        if (last <= 0) {
+            eventMethods.sendNotice(roomId, "Usage: " + usage());
+            return true;
+        }
+        if (last > MAX_COUNT) {
+            eventMethods.sendNotice(roomId, String.format("Too many statuses, only last %d will be written.", MAX_COUNT));
+            last = MAX_COUNT;
+        }
 
+        MxMastodonClient mastodonClient = context.getData();
+        StatusFilter filter = mastodonClient.getStatusFilter();
+        Timelines timelines = new Timelines(mastodonClient.getMastodonClient());
+        ExecutorService executor = Threads.tasks();
+        List<String> buffer = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        int bufferSize = 0;
         try {
-            Timelines timelines = new Timelines(context.getData().getMastodonClient());
-            long lastStatusId = Long.MAX_VALUE;
-            Queue<Status> statusQueue = new ArrayDeque<>();
-            for (int i = 0; i < last; i++) {
-                if (statusQueue.isEmpty()) {
-                    statusQueue.addAll(timelines.getHome(new Range(lastStatusId)).execute().getPart());
+            List<Status> page = mastodonClient.getTimelineBuffer().latest((int) last);
+            long remaining = last - page.size();
+            long lastStatusId = page.isEmpty() ? Long.MAX_VALUE : page.get(page.size() - 1).getId();
+            CompletableFuture<List<Status>> nextPage = remaining > 0 ? fetchPage(timelines, lastStatusId, executor) : null;
+            int pages = 0;
+
+            while (true) {
+                for (String rendered : render(mastodonClient, page, executor)) {
+                    String text = Jsoup.parse(rendered).text();
+                    String message = rendered;
+                    if (size(message) + size(text) > MAX_MESSAGE_SIZE) {
+                        text = truncate(text);
+                        message = Entities.escape(text);
+                    }
+                    int messageSize = size(message) + size(text) + size(SEPARATOR) + size(TEXT_SEPARATOR);
+                    if (!buffer.isEmpty() && bufferSize + messageSize > MAX_MESSAGE_SIZE) {
+                        send(eventMethods, roomId, buffer, texts);
+                        bufferSize = 0;
+                    }
+                    buffer.add(message);
+                    texts.add(text);
+                    bufferSize += messageSize;
+                }
+
+                if (nextPage == null) {
+                    break;
                 }
-                Status status = statusQueue.poll();
-                if (status != null) {
-                    lastStatusId = status.getId();
-                    String message = context.getData().writeStatus(status);
-                    eventMethods.sendFormattedNotice(roomId, Jsoup.parse(message).text(), message);
+                List<Status> fetched = nextPage.join();
+                if (fetched.isEmpty()) {
+                    break;
                 }
+                pages++;
+                lastStatusId = fetched.get(fetched.size() - 1).getId();
+                page = fetched.stream().filter(status -> filter.accept(status, null)).limit(remaining).collect(Collectors.toList());
+                remaining -= page.size();
+                nextPage = remaining > 0 && pages < MAX_PAGES ? fetchPage(timelines, lastStatusId, executor) : null;
             }
-        } catch (Mastodon4jRequestException e) {
-            LOGGER.error("Cannot fetch last statuses", e);
-            eventMethods.sendNotice(roomId, "Cannot fetch last statuses: " + e.getMessage());
+        } catch (CompletionException e) {
+            LOGGER.error("Cannot fetch last statuses", e.getCause());
+            eventMethods.sendNotice(roomId, "Cannot fetch last statuses: " + e.getCause().getMessage());
+        }
+
+        if (!buffer.isEmpty()) {
+            send(eventMethods, roomId, buffer, texts);
         }
         return true;
     }
 
+    protected CompletableFuture<List<Status>> fetchPage(Timelines timelines, long maxId, ExecutorService executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return timelines.getHome(new Range(maxId, null, PAGE_SIZE)).execute().getPart();
+            } catch (Mastodon4jRequestException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    protected List<String> render(MxMastodonClient mastodonClient, List<Status> statuses, ExecutorService executor) {
+        if (statuses.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<CompletableFuture<String>> messages = statuses.stream()
+            .map(status -> CompletableFuture.supplyAsync(() -> mastodonClient.writeStatus(status), executor)).collect(Collectors.toList());
+        return messages.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    protected void send(EventMethods eventMethods, String roomId, List<String> messages, List<String> texts) {
+        eventMethods.sendFormattedNotice(roomId, String.join(TEXT_SEPARATOR, texts), String.join(SEPARATOR, messages));
+        messages.clear();
+        texts.clear();
+    }
+
+    /**
+     * Size of the string in the event: UTF-8 bytes and escaped characters of the JSON.
+     *
+     * @param value string.
+     * @return size in bytes.
+     */
+    protected int size(String value) {
+        int size = value.getBytes(StandardCharsets.UTF_8).length;
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\' || ch < ' ') {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Truncate the oversize status to the plain text which fits into one message (both the body and the escaped formatted body).
+     *
+     * @param text the text of the status.
+     * @return truncated text.
+     */
+    protected String truncate(String text) {
+        String truncated = text;
+        while (!truncated.isEmpty() && size(truncated) + size(Entities.escape(truncated)) > MAX_MESSAGE_SIZE) {
+            int length = truncated.length() * MAX_MESSAGE_SIZE / (size(truncated) + size(Entities.escape(truncated))) - ELLIPSIS.length();
+            if (length > 0 && Character.isHighSurrogate(truncated.charAt(length - 1))) {
+                length--;
+            }
+            truncated = truncated.substring(0, Math.max(0, Math.min(length, truncated.length() - 1))) + ELLIPSIS;
+        }
+        return truncated;
+    }
+
     @Override
     public String help() {
-        return "write last <count> statuses (20 by default).";
+        return "write last <count> statuses (20 by default, 200 at most).";
     }
 
     @Override
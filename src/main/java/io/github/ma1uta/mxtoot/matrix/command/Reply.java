@@ -28,6 +28,9 @@ import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Reply.
  */
@@ -70,16 +73,17 @@ public class Reply implements StatusCommand {
             return true;
         }
         String message = trimmed.substring(spaceIndex);
+        long replyTo = statusId;
 
-        try {
-            Statuses statuses = new Statuses(context.getData().getMastodonClient());
-            Status origin = statuses.getStatus(statusId).execute();
+        context.getData().getPostingQueue().submit(roomId, "reply to " + replyTo, "statuses", () -> {
+            Status origin = new Statuses(context.getData().getMastodonClient()).getStatus(replyTo).execute();
             Status.Visibility visibility = visibilityByString(origin.getVisibility());
-            statuses.postStatus(message, statusId, null, false, null, visibility).execute();
-        } catch (Exception e) {
-            LOGGER.error("Cannot reply", e);
-            eventMethods.sendNotice(roomId, "Cannot reply: " + e.getMessage());
-        }
+            Map<String, String> form = new HashMap<>();
+            form.put("status", message);
+            form.put("in_reply_to_id", Long.toString(replyTo));
+            form.put("visibility", visibility != null ? visibility.getValue() : null);
+            return form;
+        });
         return true;
     }
 
@@ -0,0 +1,88 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix.command;
+
+import io.github.ma1uta.matrix.Event;
+import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.matrix.client.methods.EventMethods;
+import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
+import io.github.ma1uta.mxtoot.mastodon.SearchIndex;
+import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
+import io.github.ma1uta.mxtoot.matrix.MxTootDao;
+import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
+import org.jsoup.nodes.Entities;
+
+import java.util.List;
+
+/**
+ * Search the streamed statuses.
+ */
+public class Search implements StatusCommand {
+
+    private static final int MAX_RESULTS = 10;
+
+    @Override
+    public String name() {
+        return "search";
+    }
+
+    @Override
+    public boolean invoke(Context<MxTootConfig, MxTootDao, MxTootPersistentService<MxTootDao>, MxMastodonClient> context, String roomId,
+                          Event event, String arguments) {
+        EventMethods eventMethods = context.getMatrixClient().event();
+
+        if (!StatusCommand.initMastodonClient(context)) {
+            return false;
+        }
+
+        if (arguments == null || arguments.trim().isEmpty()) {
+            eventMethods.sendNotice(roomId, "Usage: " + usage());
+            return true;
+        }
+
+        List<SearchIndex.Document> documents = context.getData().getSearchIndex().search(arguments, MAX_RESULTS);
+        if (documents.isEmpty()) {
+            eventMethods.sendNotice(roomId, "Not found.");
+            return true;
+        }
+
+        StringBuilder text = new StringBuilder();
+        StringBuilder html = new StringBuilder();
+        for (SearchIndex.Document document : documents) {
+            if (text.length() > 0) {
+                text.append("\n");
+                html.append("<br/>");
+            }
+            text.append(String.format("%d %s: %s %s", document.getStatusId(), document.getAcct(), document.getSnippet(),
+                document.getUrl()));
+            html.append(String.format("%d %s: %s <a href=\"%s\">%s</a>", document.getStatusId(), document.getAcct(),
+                Entities.escape(document.getSnippet()), document.getUrl(), document.getUrl()));
+        }
+        eventMethods.sendFormattedNotice(roomId, text.toString(), html.toString());
+        return true;
+    }
+
+    @Override
+    public String help() {
+        return "search the streamed statuses.";
+    }
+
+    @Override
+    public String usage() {
+        return "search <words>";
+    }
+}
@@ -17,11 +17,9 @@
 package io.github.ma1uta.mxtoot.matrix.command;
 
 import com.sys1yagi.mastodon4j.api.entity.Status;
-import com.sys1yagi.mastodon4j.api.exception.Mastodon4jRequestException;
-import com.sys1yagi.mastodon4j.api.method.Statuses;
 import io.github.ma1uta.matrix.Event;
 import io.github.ma1uta.matrix.bot.Context;
-import io.github.ma1uta.matrix.client.methods.EventMethods;
+import io.github.ma1uta.mxtoot.mastodon.MediaUploads;
 import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
 import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
 import io.github.ma1uta.mxtoot.matrix.MxTootDao;
@@ -29,8 +27,15 @@ import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
- * Base class to send messages.
+ * Base class to send messages. Messages are sent by the bot's {@link io.github.ma1uta.mxtoot.mastodon.PostingQueue}.
+ * <br>
+ * Images and files sent to the room before the message are attached to it, the message text may be empty in this case.
  */
 public abstract class SendMessage implements StatusCommand {
 
@@ -48,14 +53,25 @@ public abstract class SendMessage implements StatusCommand {
             return false;
         }
 
-        EventMethods eventMethods = context.getMatrixClient().event();
-        try {
-            new Statuses(context.getData().getMastodonClient()).postStatus(arguments, null, null, false, null, getVisibility()).execute();
-        } catch (Mastodon4jRequestException e) {
-            String msg = "Cannot send " + name();
-            LOGGER.error(msg, e);
-            eventMethods.sendNotice(roomId, msg);
+        MediaUploads mediaUploads = context.getData().getMediaUploads();
+        List<CompletableFuture<String>> attachments = mediaUploads.take();
+        String text = arguments != null ? arguments.trim() : "";
+        if (text.isEmpty() && attachments.isEmpty()) {
+            context.getMatrixClient().event().sendNotice(roomId, "Usage: " + usage());
+            return true;
         }
+        mediaUploads.ready(attachments).whenComplete((mediaIds, e) -> {
+            if (e != null) {
+                LOGGER.error("Cannot attach media", e);
+                context.getMatrixClient().event().sendNotice(roomId, "Cannot attach media: " + e.getMessage());
+                return;
+            }
+            Map<String, Object> form = new HashMap<>();
+            form.put("status", text);
+            form.put("visibility", getVisibility().getValue());
+            form.put("media_ids[]", mediaIds);
+            context.getData().getPostingQueue().submit(roomId, name() + " message", "statuses", () -> form);
+        });
         return true;
     }
 
@@ -68,6 +84,6 @@ public abstract class SendMessage implements StatusCommand {
 
     @Override
     public String usage() {
-        return name() + " <message>";
+        return name() + " <message> (images and files sent before the command are attached)";
     }
 }
@@ -65,8 +65,10 @@ public class Status implements StatusCommand {
 
         try {
             MxMastodonClient mastodonClient = context.getData();
-            com.sys1yagi.mastodon4j.api.entity.Status status = new Statuses(mastodonClient.getMastodonClient()).getStatus(statusId)
-                .execute();
+            com.sys1yagi.mastodon4j.api.entity.Status status = mastodonClient.getTimelineBuffer().find(statusId);
+            if (status == null) {
+                status = new Statuses(mastodonClient.getMastodonClient()).getStatus(statusId).execute();
+            }
             String message = mastodonClient.writeStatus(status);
             eventMethods.sendFormattedNotice(roomId, Jsoup.parse(message).text(), message);
         } catch (Mastodon4jRequestException e) {
@@ -20,11 +20,11 @@ import com.google.gson.Gson;
 import com.sys1yagi.mastodon4j.MastodonClient;
 import io.github.ma1uta.matrix.bot.Command;
 import io.github.ma1uta.matrix.bot.Context;
+import io.github.ma1uta.mxtoot.mastodon.HttpClients;
 import io.github.ma1uta.mxtoot.mastodon.MxMastodonClient;
 import io.github.ma1uta.mxtoot.matrix.MxTootConfig;
 import io.github.ma1uta.mxtoot.matrix.MxTootDao;
 import io.github.ma1uta.mxtoot.matrix.MxTootPersistentService;
-import okhttp3.OkHttpClient;
 
 /**
  * Common parent of the status commands with Mastodon client initialization.
@@ -44,10 +44,12 @@ public interface StatusCommand extends Command<MxTootConfig, MxTootDao, MxTootPe
                 return false;
             } else {
                 MxTootConfig config = holder.getConfig();
-                MastodonClient client = new MastodonClient.Builder(config.getMastodonServer(), new OkHttpClient.Builder(), new Gson())
-                    .useStreamingApi().accessToken(config.getMastodonAccessToken()).build();
+                MastodonClient client = new MastodonClient.Builder(config.getMastodonServer(), HttpClients.requests(), new Gson())
+                    .accessToken(config.getMastodonAccessToken()).build();
+                MastodonClient streamingClient = new MastodonClient.Builder(config.getMastodonServer(), HttpClients.newBuilder(),
+                    new Gson()).useStreamingApi().accessToken(config.getMastodonAccessToken()).build();
 
-                MxMastodonClient mastodonClient = new MxMastodonClient(client, holder);
+                MxMastodonClient mastodonClient = new MxMastodonClient(client, streamingClient, holder);
                 holder.setData(mastodonClient);
                 holder.addShutdownListener(mastodonClient);
                 return true;
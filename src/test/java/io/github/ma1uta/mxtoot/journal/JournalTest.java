@@ -0,0 +1,202 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.journal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+public class JournalTest {
+
+    private static final int SEGMENT_SIZE = 64;
+
+    private static final int RECORD_SIZE = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsRecordsInOrder() throws IOException {
+        try (Journal journal = new Journal(folder.getRoot().toPath())) {
+            assertTrue(journal.isEmpty());
+            journal.append(bytes("first"));
+            journal.append(bytes("second"));
+
+            Journal.Record first = journal.peek();
+            assertArrayEquals(bytes("first"), first.getPayload());
+            Journal.Record second = journal.next(first);
+            assertArrayEquals(bytes("second"), second.getPayload());
+            assertNull(journal.next(second));
+            assertFalse(journal.isEmpty());
+        }
+    }
+
+    @Test
+    public void rejectsWrongRecordSize() throws IOException {
+        try (Journal journal = new Journal(folder.getRoot().toPath(), SEGMENT_SIZE)) {
+            assertThrows(() -> journal.append(new byte[0]));
+            assertThrows(() -> journal.append(new byte[SEGMENT_SIZE]));
+        }
+    }
+
+    @Test
+    public void resumesFromCheckpointAfterRestart() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (Journal journal = new Journal(directory)) {
+            journal.append(bytes("first"));
+            journal.append(bytes("second"));
+            journal.append(bytes("third"));
+            journal.ack(journal.peek());
+        }
+
+        try (Journal journal = new Journal(directory)) {
+            Journal.Record second = journal.peek();
+            assertArrayEquals(bytes("second"), second.getPayload());
+            assertArrayEquals(bytes("third"), journal.next(second).getPayload());
+
+            journal.append(bytes("fourth"));
+            Journal.Record third = journal.next(second);
+            assertArrayEquals(bytes("fourth"), journal.next(third).getPayload());
+        }
+    }
+
+    @Test
+    public void ignoresStaleAck() throws IOException {
+        try (Journal journal = new Journal(folder.getRoot().toPath())) {
+            journal.append(bytes("first"));
+            journal.append(bytes("second"));
+            Journal.Record first = journal.peek();
+            journal.ack(journal.next(first));
+            journal.ack(first);
+
+            assertTrue(journal.isEmpty());
+        }
+    }
+
+    @Test
+    public void discardsTornRecord() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        long tornPosition;
+        try (Journal journal = new Journal(directory)) {
+            journal.append(bytes("first"));
+            tornPosition = journal.append(bytes("second"));
+        }
+        try (RandomAccessFile segment = new RandomAccessFile(directory.resolve(String.format("%020d.seg", 0)).toFile(), "rw")) {
+            long payload = tornPosition + Journal.HEADER_SIZE;
+            segment.seek(payload);
+            int value = segment.read();
+            segment.seek(payload);
+            segment.write(value ^ 1);
+        }
+
+        try (Journal journal = new Journal(directory)) {
+            Journal.Record first = journal.peek();
+            assertArrayEquals(bytes("first"), first.getPayload());
+            assertNull(journal.next(first));
+
+            assertEquals(tornPosition, journal.append(bytes("third")));
+            assertArrayEquals(bytes("third"), journal.next(first).getPayload());
+        }
+    }
+
+    @Test
+    public void deletesConsumedSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(record(i));
+            }
+            assertEquals(3, segments(directory));
+
+            Journal.Record record = journal.peek();
+            for (int i = 0; i < 3; i++) {
+                record = journal.next(record);
+            }
+            journal.ack(record);
+            assertEquals(2, segments(directory));
+        }
+
+        try (Journal journal = new Journal(directory, SEGMENT_SIZE)) {
+            Journal.Record last = journal.peek();
+            assertArrayEquals(record(4), last.getPayload());
+            journal.ack(last);
+            assertTrue(journal.isEmpty());
+            assertEquals(1, segments(directory));
+        }
+    }
+
+    @Test
+    public void remapsReleasedSegments() throws IOException {
+        try (Journal journal = new Journal(folder.getRoot().toPath(), SEGMENT_SIZE)) {
+            journal.append(record(0));
+            journal.release();
+            journal.append(record(1));
+            journal.force();
+
+            Journal.Record first = journal.peek();
+            assertArrayEquals(record(0), first.getPayload());
+            assertArrayEquals(record(1), journal.next(first).getPayload());
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] record(int number) {
+        byte[] payload = new byte[RECORD_SIZE];
+        payload[0] = (byte) number;
+        payload[RECORD_SIZE - 1] = 1;
+        return payload;
+    }
+
+    private static long segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+
+    private static void assertThrows(Append append) {
+        try {
+            append.run();
+        } catch (IOException e) {
+            return;
+        }
+        throw new AssertionError("The record has been appended");
+    }
+
+    /**
+     * Append which should fail.
+     */
+    private interface Append {
+
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+public class KeywordMatcherTest {
+
+    @Test
+    public void matchesWholeWords() {
+        KeywordMatcher matcher = new KeywordMatcher(Collections.singletonList("cat"));
+
+        assertTrue(matcher.matches("cat"));
+        assertTrue(matcher.matches("a cat."));
+        assertTrue(matcher.matches("(cat)"));
+        assertFalse(matcher.matches("category"));
+        assertFalse(matcher.matches("concat"));
+        assertFalse(matcher.matches("cat_food"));
+        assertFalse(matcher.matches("cat2"));
+    }
+
+    @Test
+    public void ignoresCase() {
+        KeywordMatcher matcher = new KeywordMatcher(Collections.singletonList("Spoiler"));
+
+        assertTrue(matcher.matches("SPOILER alert"));
+        assertTrue(matcher.matches("no spoiler"));
+    }
+
+    @Test
+    public void ignoresDefaultLocale() {
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            KeywordMatcher matcher = new KeywordMatcher(Collections.singletonList("TITLE"));
+
+            assertTrue(matcher.matches("the title"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void needsNoBoundaryNextToPunctuation() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("#tag", "c++"));
+
+        assertTrue(matcher.matches("see #tag!"));
+        assertTrue(matcher.matches("x#tag"));
+        assertFalse(matcher.matches("#tags"));
+        assertTrue(matcher.matches("c++x"));
+        assertFalse(matcher.matches("abc++"));
+    }
+
+    @Test
+    public void findsOverlappingKeywords() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("he", "she", "hers"));
+
+        assertFalse(matcher.matches("ushers"));
+        assertTrue(matcher.matches("ushers she"));
+        assertTrue(matcher.matches("is it hers"));
+        assertTrue(matcher.matches("sshe he"));
+    }
+
+    @Test
+    public void matchesNothingWithoutKeywords() {
+        KeywordMatcher matcher = new KeywordMatcher(Collections.singletonList(""));
+
+        assertFalse(matcher.matches("anything"));
+        assertFalse(matcher.matches(null));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class OutboxTest {
+
+    private static final String ROOM = "!room:example.com";
+
+    private static final long TIMEOUT = 5000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsTransactionIdOfPendingMessageAfterRestart() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        MxMastodonClient client = mock(MxMastodonClient.class);
+        when(client.deliver(anyString(), any())).thenReturn(CompletableFuture.completedFuture(true), new CompletableFuture<>());
+
+        Outbox outbox = new Outbox(client, directory);
+        outbox.send(ROOM, "first", null);
+        outbox.send(ROOM, "second", null);
+        List<Outbox.Pending> sent = delivered(client, 2);
+        outbox.close();
+
+        assertEquals("first", sent.get(0).getMessage());
+        assertEquals("second", sent.get(1).getMessage());
+        assertTrue(sent.get(0).getTxnId().startsWith("mxtoot-"));
+        assertNotEquals(sent.get(0).getTxnId(), sent.get(1).getTxnId());
+
+        MxMastodonClient restarted = mock(MxMastodonClient.class);
+        when(restarted.deliver(anyString(), any())).thenReturn(new CompletableFuture<>());
+        Outbox resumed = new Outbox(restarted, directory);
+        resumed.resume();
+        List<Outbox.Pending> resent = delivered(restarted, 1);
+        assertEquals(Collections.singletonList(ROOM), resumed.knownRooms());
+        resumed.close();
+
+        assertEquals("second", resent.get(0).getMessage());
+        assertEquals(sent.get(1).getTxnId(), resent.get(0).getTxnId());
+    }
+
+    private static List<Outbox.Pending> delivered(MxMastodonClient client, int count) {
+        ArgumentCaptor<Outbox.Pending> captor = ArgumentCaptor.forClass(Outbox.Pending.class);
+        verify(client, timeout(TIMEOUT).times(count)).deliver(eq(ROOM), captor.capture());
+        return captor.getAllValues();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class SearchIndexTest {
+
+    private final Gson gson = new Gson();
+
+    private final SearchIndex index = new SearchIndex(SearchIndex.DEFAULT_RETENTION);
+
+    @Test
+    public void findsStatusesByTextAndAccount() {
+        index.add(status(1L, "alice", "<p>The <b>quick</b> brown fox</p>"));
+        index.add(status(2L, "bob@example.com", "<p>Lazy dog</p>"));
+
+        assertEquals(Arrays.asList(1L), ids(index.search("QUICK", 10)));
+        assertEquals(Arrays.asList(2L), ids(index.search("bob@example.com", 10)));
+        assertTrue(index.search("cat", 10).isEmpty());
+    }
+
+    @Test
+    public void ranksFrequentTermsHigher() {
+        index.add(status(1L, "alice", "<p>mastodon and matrix and other words</p>"));
+        index.add(status(2L, "alice", "<p>matrix matrix</p>"));
+        index.add(status(3L, "alice", "<p>nothing related</p>"));
+
+        assertEquals(Arrays.asList(2L, 1L), ids(index.search("matrix", 10)));
+        assertEquals(Arrays.asList(2L), ids(index.search("matrix", 1)));
+    }
+
+    @Test
+    public void indexesHashtagsAndSpoilers() {
+        index.add(gson.fromJson("{\"id\":1,\"content\":\"<p>text</p>\",\"spoiler_text\":\"Politics\",\"account\":{\"id\":1,"
+            + "\"acct\":\"alice\"}}", Status.class));
+        index.add(status(2L, "alice", "<p>about #java</p>"));
+
+        assertEquals(Arrays.asList(1L), ids(index.search("politics", 10)));
+        assertEquals(Arrays.asList(2L), ids(index.search("#java", 10)));
+    }
+
+    @Test
+    public void indexesBoostedStatusOnce() {
+        Status origin = status(1L, "bob", "<p>boosted words</p>");
+        index.add(gson.fromJson("{\"id\":2,\"content\":\"\",\"account\":{\"id\":2,\"acct\":\"alice\"},\"reblog\":"
+            + gson.toJson(origin) + "}", Status.class));
+        index.add(status(2L, "alice", "<p>boosted again</p>"));
+
+        List<SearchIndex.Document> found = index.search("boosted", 10);
+        assertEquals(1, found.size());
+        assertEquals("bob", found.get(0).getAcct());
+        assertEquals("boosted words", found.get(0).getSnippet());
+    }
+
+    @Test
+    public void removesDeletedStatuses() {
+        index.add(status(1L, "alice", "<p>first word</p>"));
+        index.add(status(2L, "alice", "<p>second word</p>"));
+        index.remove(1L);
+        index.remove(1L);
+
+        assertEquals(Arrays.asList(2L), ids(index.search("word", 10)));
+        assertTrue(index.search("first", 10).isEmpty());
+    }
+
+    @Test
+    public void dropsOldestStatusesOverLimit() {
+        for (long id = 0; id <= SearchIndex.MAX_DOCUMENTS; id++) {
+            index.add(status(id, "alice", "<p>word" + id + "</p>"));
+        }
+
+        assertTrue(index.search("word0", 10).isEmpty());
+        assertEquals(Arrays.asList(1L), ids(index.search("word1", 10)));
+        assertEquals(Arrays.asList((long) SearchIndex.MAX_DOCUMENTS), ids(index.search("word" + SearchIndex.MAX_DOCUMENTS, 10)));
+    }
+
+    private Status status(long id, String acct, String content) {
+        return gson.fromJson("{\"id\":" + id + ",\"content\":" + gson.toJson(content) + ",\"account\":{\"id\":1,\"acct\":\"" + acct
+            + "\"}}", Status.class);
+    }
+
+    private static List<Long> ids(List<SearchIndex.Document> documents) {
+        return documents.stream().map(SearchIndex.Document::getStatusId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.Gson;
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class StatusFilterTest {
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void compilesEmptyRules() {
+        assertSame(StatusFilter.EMPTY, StatusFilter.compile(null));
+        assertSame(StatusFilter.EMPTY, StatusFilter.compile(" \n "));
+        assertTrue(StatusFilter.EMPTY.accept(status("alice", "<p>anything</p>"), "en"));
+    }
+
+    @Test
+    public void compilesRulePerLine() {
+        StatusFilter filter = StatusFilter.compile(" boosts \n\nWORD spoiler\n");
+
+        assertEquals(Arrays.asList("boosts", "WORD spoiler"), filter.getRules());
+    }
+
+    @Test
+    public void rejectsUnknownRule() {
+        assertRejected("hashtag #cats");
+    }
+
+    @Test
+    public void rejectsWrongRegex() {
+        assertRejected("regex (unclosed");
+    }
+
+    @Test
+    public void hidesBoostsAndReplies() {
+        StatusFilter filter = StatusFilter.compile("boosts\nreplies");
+
+        assertTrue(filter.accept(status("alice", "<p>hi</p>"), null));
+        assertFalse(filter.accept(boost("alice", status("bob", "<p>hi</p>")), null));
+        assertFalse(filter.accept(reply("alice", "<p>hi</p>"), null));
+    }
+
+    @Test
+    public void matchesWordsInText() {
+        StatusFilter filter = StatusFilter.compile("word spoiler\nword span");
+
+        assertFalse(filter.accept(status("alice", "<p>no <b>spoiler</b> here</p>"), null));
+        assertTrue(filter.accept(status("alice", "<p><span>hello</span></p>"), null));
+        assertFalse(filter.accept(boost("alice", status("bob", "<p>a spoiler</p>")), null));
+    }
+
+    @Test
+    public void matchesRegexInText() {
+        StatusFilter filter = StatusFilter.compile("regex hello\\s+world\nregex class=");
+
+        assertFalse(filter.accept(status("alice", "<p>Hello <b>world</b></p>"), null));
+        assertTrue(filter.accept(status("alice", "<p class=\"x\">hi</p>"), null));
+    }
+
+    @Test
+    public void showsOnlySelectedLanguages() {
+        StatusFilter filter = StatusFilter.compile("language EN, de");
+        Status status = status("alice", "<p>hi</p>");
+
+        assertTrue(filter.accept(status, "en"));
+        assertTrue(filter.accept(status, "DE"));
+        assertFalse(filter.accept(status, "fr"));
+        assertTrue(filter.accept(status, null));
+    }
+
+    @Test
+    public void hidesVisibilities() {
+        StatusFilter filter = StatusFilter.compile("visibility direct,private");
+
+        assertTrue(filter.accept(status("alice", "<p>hi</p>"), null));
+        assertFalse(filter.accept(gson.fromJson("{\"id\":1,\"content\":\"hi\",\"visibility\":\"direct\",\"account\":{\"id\":1,"
+            + "\"acct\":\"alice\"}}", Status.class), null));
+    }
+
+    @Test
+    public void hidesAccountsAndTheirBoosts() {
+        StatusFilter filter = StatusFilter.compile("account @Bob@example.com");
+
+        assertFalse(filter.accept(status("bob@example.com", "<p>hi</p>"), null));
+        assertFalse(filter.accept(boost("alice", status("bob@example.com", "<p>hi</p>")), null));
+        assertFalse(filter.accept(boost("bob@example.com", status("alice", "<p>hi</p>")), null));
+        assertTrue(filter.accept(status("bob", "<p>hi</p>"), null));
+    }
+
+    private void assertRejected(String rules) {
+        try {
+            StatusFilter.compile(rules);
+            fail("The rules have been compiled: " + rules);
+        } catch (IllegalArgumentException e) {
+            assertNotNull(e.getMessage());
+        }
+    }
+
+    private Status status(String acct, String content) {
+        return gson.fromJson(json(acct, content, ""), Status.class);
+    }
+
+    private Status reply(String acct, String content) {
+        return gson.fromJson(json(acct, content, ",\"in_reply_to_id\":2"), Status.class);
+    }
+
+    private Status boost(String acct, Status origin) {
+        return gson.fromJson(json(acct, "", ",\"reblog\":" + gson.toJson(origin)), Status.class);
+    }
+
+    private String json(String acct, String content, String extra) {
+        return "{\"id\":1,\"content\":" + gson.toJson(content) + ",\"visibility\":\"public\",\"account\":{\"id\":1,\"acct\":\""
+            + acct + "\"}" + extra + "}";
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.mastodon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TimelineBufferTest {
+
+    private static final int CAPACITY = 3;
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void keepsNewestStatusesAfterWraparound() {
+        TimelineBuffer buffer = new TimelineBuffer(CAPACITY);
+        for (long id = 1; id <= 5; id++) {
+            buffer.add(status(id));
+        }
+
+        assertEquals(Arrays.asList(5L, 4L, 3L), ids(buffer.latest(10)));
+        assertEquals(Arrays.asList(5L, 4L), ids(buffer.latest(2)));
+        assertNull(buffer.find(2L));
+        assertEquals(4L, buffer.find(4L).getId());
+    }
+
+    @Test
+    public void returnsNothingForNonPositiveCount() {
+        TimelineBuffer buffer = new TimelineBuffer(CAPACITY);
+        buffer.add(status(1L));
+
+        assertTrue(buffer.latest(0).isEmpty());
+        assertTrue(buffer.latest(-5).isEmpty());
+    }
+
+    @Test
+    public void removesStatusAndKeepsOrder() {
+        TimelineBuffer buffer = new TimelineBuffer(CAPACITY);
+        for (long id = 1; id <= 4; id++) {
+            buffer.add(status(id));
+        }
+        buffer.remove(3L);
+        assertEquals(Arrays.asList(4L, 2L), ids(buffer.latest(10)));
+
+        buffer.add(status(5L));
+        buffer.add(status(6L));
+        assertEquals(Arrays.asList(6L, 5L, 4L), ids(buffer.latest(10)));
+    }
+
+    @Test
+    public void clearsStatuses() {
+        TimelineBuffer buffer = new TimelineBuffer(CAPACITY);
+        buffer.add(status(1L));
+        buffer.clear();
+
+        assertTrue(buffer.latest(10).isEmpty());
+        assertNull(buffer.find(1L));
+    }
+
+    @Test
+    public void keepsAtLeastOneStatus() {
+        TimelineBuffer buffer = new TimelineBuffer(0);
+        buffer.add(status(1L));
+        buffer.add(status(2L));
+
+        assertEquals(Arrays.asList(2L), ids(buffer.latest(10)));
+    }
+
+    private Status status(long id) {
+        return gson.fromJson("{\"id\":" + id + ",\"content\":\"status " + id + "\"}", Status.class);
+    }
+
+    private static List<Long> ids(List<Status> statuses) {
+        return statuses.stream().map(Status::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright sablintolya@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mxtoot.matrix.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.jsoup.nodes.Entities;
+import org.junit.Test;
+
+public class LastStatusesTest {
+
+    /**
+     * Max size of the body and the formatted body of the message.
+     */
+    private static final int MAX_MESSAGE_SIZE = 60000;
+
+    private static final String ELLIPSIS = "\u2026";
+
+    private final LastStatuses command = new LastStatuses();
+
+    @Test
+    public void sizesUtf8BytesAndJsonEscapes() {
+        assertEquals(3, command.size("abc"));
+        assertEquals(2, command.size("\u00e9"));
+        assertEquals(4, command.size("\ud83d\ude00"));
+        assertEquals(7, command.size("a\"b\\c"));
+        assertEquals(4, command.size("\n\t"));
+    }
+
+    @Test
+    public void keepsShortText() {
+        assertEquals("short text", command.truncate("short text"));
+    }
+
+    @Test
+    public void truncatesMultibyteText() {
+        String text = repeat("\u00e9<", MAX_MESSAGE_SIZE / 2);
+        String truncated = command.truncate(text);
+
+        assertTrue(command.size(truncated) + command.size(Entities.escape(truncated)) <= MAX_MESSAGE_SIZE);
+        assertTrue(truncated.endsWith(ELLIPSIS));
+        assertTrue(text.startsWith(truncated.substring(0, truncated.length() - ELLIPSIS.length())));
+    }
+
+    @Test
+    public void keepsSurrogatePairs() {
+        String truncated = command.truncate(repeat("\ud83d\ude00", MAX_MESSAGE_SIZE / 4));
+
+        assertTrue(command.size(truncated) + command.size(Entities.escape(truncated)) <= MAX_MESSAGE_SIZE);
+        assertTrue(truncated.endsWith(ELLIPSIS));
+        assertFalse(Character.isHighSurrogate(truncated.charAt(truncated.length() - ELLIPSIS.length() - 1)));
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder(value.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}